@@ -10,20 +10,35 @@ import android.widget.Toast;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class GeofenceBroadcastReceiver extends BroadcastReceiver {
 
     private static final String TAG = "GeofenceBroadcastReceiv";
 
+    // Zone lookups hit the database, keep them off the main thread.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static final Comparator<ZoneRecord> BY_SEVERITY = new Comparator<ZoneRecord>() {
+        @Override
+        public int compare(ZoneRecord a, ZoneRecord b) {
+            if (a.severity != b.severity) {
+                return b.severity - a.severity;
+            }
+            return a.id.compareTo(b.id);
+        }
+    };
+
     @Override
     public void onReceive(Context context, Intent intent) {
-        // TODO: This method is called when the BroadcastReceiver is receiving
-        // an Intent broadcast.
 //        Toast.makeText(context, "Geofence triggered...", Toast.LENGTH_SHORT).show();
 
-        NotificationHelper notificationHelper = new NotificationHelper(context);
-
         GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
 
         if (geofencingEvent.hasError()) {
@@ -32,26 +47,88 @@ public class GeofenceBroadcastReceiver extends BroadcastReceiver {
         }
 
         List<Geofence> geofenceList = geofencingEvent.getTriggeringGeofences();
+        final List<String> ids = new ArrayList<>(geofenceList.size());
         for (Geofence geofence: geofenceList) {
             Log.d(TAG, "onReceive: " + geofence.getRequestId());
+            ids.add(geofence.getRequestId());
         }
-//        Location location = geofencingEvent.getTriggeringLocation();
-        int transitionType = geofencingEvent.getGeofenceTransition();
+        final Location location = geofencingEvent.getTriggeringLocation();
+        final int transitionType = geofencingEvent.getGeofenceTransition();
 
         switch (transitionType) {
             case Geofence.GEOFENCE_TRANSITION_ENTER:
                 Toast.makeText(context, "GEOFENCE_TRANSITION_ENTER", Toast.LENGTH_SHORT).show();
-                notificationHelper.sendHighPriorityNotification("You have entered accident prone zone", "You have entered accident prone zone, drive with care", MapsActivity.class);
                 break;
             case Geofence.GEOFENCE_TRANSITION_DWELL:
                 Toast.makeText(context, "GEOFENCE_TRANSITION_DWELL", Toast.LENGTH_SHORT).show();
-                notificationHelper.sendHighPriorityNotification("You are in accident prone zone", "Accident prone zone, go slow", MapsActivity.class);
                 break;
             case Geofence.GEOFENCE_TRANSITION_EXIT:
                 Toast.makeText(context, "GEOFENCE_TRANSITION_EXIT", Toast.LENGTH_SHORT).show();
-                notificationHelper.sendHighPriorityNotification("You have exited accident prone zone", "You have safely passed the accident prone zone", MapsActivity.class);
                 break;
+            default:
+                return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    notifyZones(appContext, ids, location, transitionType);
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+
+    private static void notifyZones(Context context, List<String> ids, Location location, int transitionType) {
+        RoadMatchFilter roadMatchFilter = RoadMatchFilter.getInstance(context);
+        roadMatchFilter.onLocation(location);
+        roadMatchFilter.onTransition(context, ids, transitionType);
+
+        Map<String, ZoneRecord> found = ZoneDatabase.getInstance(context).getZones(ids);
+        List<ZoneRecord> zones = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            // Exits always go through so the driver is never left with a stale warning.
+            if (transitionType != Geofence.GEOFENCE_TRANSITION_EXIT && !roadMatchFilter.appliesTo(id)) {
+                Log.d(TAG, "notifyZones: " + id + " does not apply to the matched road");
+                continue;
+            }
+            ZoneRecord zone = found.get(id);
+            zones.add(zone != null ? zone : ZoneRecord.unknown(id));
+        }
+        if (zones.isEmpty()) {
+            return;
         }
+        Collections.sort(zones, BY_SEVERITY);
 
+        ZoneRecord top = zones.get(0);
+        String title;
+        String body;
+        switch (transitionType) {
+            case Geofence.GEOFENCE_TRANSITION_ENTER:
+                title = "You have entered accident prone zone";
+                body = top.title + ": " + top.message;
+                break;
+            case Geofence.GEOFENCE_TRANSITION_DWELL:
+                title = "You are in accident prone zone";
+                body = top.title + ": " + top.message + ", go slow";
+                break;
+            default:
+                title = "You have exited accident prone zone";
+                body = "You have safely passed " + top.title;
+                break;
+        }
+        if (zones.size() > 1) {
+            title = title + " (" + zones.size() + " zones)";
+        }
+
+        List<String> lines = new ArrayList<>(zones.size());
+        for (ZoneRecord zone : zones) {
+            lines.add(zone.title);
+        }
+        new NotificationHelper(context).sendZoneSummaryNotification(title, body, lines, MapsActivity.class);
     }
 }
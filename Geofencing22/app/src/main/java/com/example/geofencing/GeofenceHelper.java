@@ -11,6 +11,8 @@ import com.google.android.gms.location.GeofenceStatusCodes;
 import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.maps.model.LatLng;
 
+import java.util.List;
+
 public class GeofenceHelper extends ContextWrapper {
 
     private static final String TAG = "GeofenceHelper";
@@ -27,13 +29,35 @@ public class GeofenceHelper extends ContextWrapper {
                 .build();
     }
 
+    public GeofencingRequest getGeofencingRequest(List<Geofence> geofences) {
+        return new GeofencingRequest.Builder()
+                .addGeofences(geofences)
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
+                .build();
+    }
+
+    /**
+     * Request for putting back geofences the OS dropped. It has no initial trigger, so a driver
+     * already inside a zone is not alerted for it a second time.
+     */
+    public GeofencingRequest getRearmRequest(List<Geofence> geofences) {
+        return new GeofencingRequest.Builder()
+                .addGeofences(geofences)
+                .setInitialTrigger(0)
+                .build();
+    }
+
     public Geofence getGeofence(String ID, LatLng latLng, float radius, int transitionTypes) {
+        return getGeofence(ID, latLng, radius, transitionTypes, Geofence.NEVER_EXPIRE);
+    }
+
+    public Geofence getGeofence(String ID, LatLng latLng, float radius, int transitionTypes, long expirationDuration) {
         return new Geofence.Builder()
                 .setCircularRegion(latLng.latitude, latLng.longitude, radius)
                 .setRequestId(ID)
                 .setTransitionTypes(transitionTypes)
                 .setLoiteringDelay(5000)
-                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setExpirationDuration(expirationDuration)
                 .build();
     }
 
@@ -0,0 +1,100 @@
+package com.example.geofencing;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Puts the last registered geofences back after the OS has dropped them (reboot, app update).
+ * Works only from {@link GeofenceSnapshot}, then lets {@link ZoneActivationScheduler} fix up
+ * time-windowed zones and re-arm its alarm, and restarts the road matching location stream if the
+ * driver was inside a zone; a reboot clears both.
+ * <p>
+ * Provider toggles are not delivered to manifest receivers since Android 8, so {@link MapsActivity}
+ * registers this receiver for them while it is started. Opening the app does not re-arm: the OS
+ * still holds the geofences then, and adding them again would alert a driver already inside a zone.
+ */
+public class GeofenceRearmReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "GeofenceRearmReceiver";
+
+    private static final long REARM_TIMEOUT_SECONDS = 30;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.d(TAG, "onReceive: " + intent.getAction());
+
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rearm(appContext);
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers the snapshot with the OS again and reloads the zone schedules.
+     * Waits for the OS and reads files, call it off the main thread.
+     */
+    static void rearm(Context context) {
+        if (!hasLocationPermission(context)) {
+            Log.d(TAG, "rearm: No location permission, cannot re-arm geofences...");
+            return;
+        }
+
+        GeofenceHelper geofenceHelper = new GeofenceHelper(context);
+        List<Geofence> geofences = GeofenceSnapshot.getInstance(context).toGeofences(geofenceHelper, System.currentTimeMillis());
+        if (!geofences.isEmpty()) {
+            GeofencingClient geofencingClient = LocationServices.getGeofencingClient(context);
+            try {
+                Tasks.await(geofencingClient.addGeofences(geofenceHelper.getRearmRequest(geofences), geofenceHelper.getPendingIntent()),
+                        REARM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                Log.d(TAG, "rearm: Re-armed " + geofences.size() + " geofences...");
+            } catch (ExecutionException e) {
+                Log.d(TAG, "rearm: " + (e.getCause() instanceof Exception ? geofenceHelper.getErrorString((Exception) e.getCause()) : e.getLocalizedMessage()));
+            } catch (TimeoutException | SecurityException e) {
+                Log.d(TAG, "rearm: " + e.getLocalizedMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        ZoneActivationScheduler.getInstance(context).reload();
+        RoadMatchFilter.getInstance(context).resumeTracking(context);
+    }
+
+    static boolean hasLocationPermission(Context context) {
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        // From Android 10 geofences only trigger with background location access.
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_BACKGROUND_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.geofencing;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.core.util.AtomicFile;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact on-disk copy of the geofences we last handed to the OS.
+ * The OS forgets registered geofences on reboot, app update and location toggle, so this is
+ * what {@link GeofenceRearmReceiver} reads to put them back without touching any zone data or UI.
+ * <p>
+ * One instance per process: every writer shares the same entries and each change is a locked
+ * read-modify-write of them, so concurrent writers cannot overwrite each other's file.
+ */
+public class GeofenceSnapshot {
+
+    private static final String TAG = "GeofenceSnapshot";
+
+    private static final String FILE_NAME = "geofence_snapshot.bin";
+    private static final int VERSION = 2;
+    // Version 1 files have no expiration, every entry in them never expires.
+    private static final int VERSION_NO_EXPIRATION = 1;
+
+    private static GeofenceSnapshot instance;
+
+    private final AtomicFile file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public static class Entry {
+        public final String id;
+        public final double latitude;
+        public final double longitude;
+        public final float radius;
+        public final int transitionTypes;
+        // Wall clock time the OS drops the geofence at, 0 when it never expires.
+        public final long expiresAt;
+
+        public Entry(String id, double latitude, double longitude, float radius, int transitionTypes) {
+            this(id, latitude, longitude, radius, transitionTypes, 0);
+        }
+
+        public Entry(String id, double latitude, double longitude, float radius, int transitionTypes, long expiresAt) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.radius = radius;
+            this.transitionTypes = transitionTypes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public static synchronized GeofenceSnapshot getInstance(Context context) {
+        if (instance == null) {
+            instance = new GeofenceSnapshot(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private GeofenceSnapshot(Context context) {
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        load();
+    }
+
+    public synchronized void put(String id, LatLng latLng, float radius, int transitionTypes) {
+        entries.put(id, new Entry(id, latLng.latitude, latLng.longitude, radius, transitionTypes));
+        save();
+    }
+
+    public synchronized void putAll(Collection<Entry> added) {
+        for (Entry entry : added) {
+            entries.put(entry.id, entry);
+        }
+        save();
+    }
+
+    public synchronized void remove(String id) {
+        if (entries.remove(id) != null) {
+            save();
+        }
+    }
+
+    public synchronized void removeAll(Collection<String> ids) {
+        boolean changed = false;
+        for (String id : ids) {
+            changed |= entries.remove(id) != null;
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        file.delete();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public synchronized boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Builds the geofences to hand back to the OS at {@code now}. Entries with an expiration keep
+     * only what is left of it and the ones already past it are left out.
+     */
+    public List<Geofence> toGeofences(GeofenceHelper geofenceHelper, long now) {
+        List<Geofence> geofences = new ArrayList<>();
+        for (Entry entry : getEntries()) {
+            long expiration = Geofence.NEVER_EXPIRE;
+            if (entry.expiresAt != 0) {
+                if (entry.expiresAt <= now) {
+                    continue;
+                }
+                expiration = entry.expiresAt - now;
+            }
+            geofences.add(geofenceHelper.getGeofence(entry.id, new LatLng(entry.latitude, entry.longitude), entry.radius, entry.transitionTypes, expiration));
+        }
+        return geofences;
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(file.openRead());
+            int version = in.readInt();
+            if (version != VERSION && version != VERSION_NO_EXPIRATION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                float radius = in.readFloat();
+                int transitionTypes = in.readInt();
+                long expiresAt = version == VERSION ? in.readLong() : 0;
+                entries.put(id, new Entry(id, latitude, longitude, radius, transitionTypes, expiresAt));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing registered yet.
+        } catch (IOException e) {
+            Log.d(TAG, "load: Corrupt snapshot, dropping it...", e);
+            entries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                data.writeUTF(entry.id);
+                data.writeDouble(entry.latitude);
+                data.writeDouble(entry.longitude);
+                data.writeFloat(entry.radius);
+                data.writeInt(entry.transitionTypes);
+                data.writeLong(entry.expiresAt);
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.d(TAG, "save: Could not write snapshot...", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.geofencing;
+
+/**
+ * Hashed timing wheel: timeouts hash into {@code slotCount} buckets by their tick, and a timeout
+ * further away than one revolution just waits out the extra rounds in its bucket. Adding and
+ * cancelling are O(1); advancing touches only the buckets of the ticks that went by.
+ * <p>
+ * Not thread safe.
+ */
+public class HashedTimerWheel<T> {
+
+    public interface Handler<T> {
+        void onExpired(T item, long deadline);
+    }
+
+    public static final class Timeout<T> {
+        private final T item;
+        private final long deadline;
+        // Tick at which advanceTo fires it: the deadline rounded up, never before the current tick.
+        private long tick;
+        private long rounds;
+        private int slot;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private boolean linked;
+
+        private Timeout(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout<T>[] slots;
+    // Next tick that has not been processed yet.
+    private long currentTick;
+    private int size;
+
+    public HashedTimerWheel(long tickMillis, int slotCount, long now) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("slotCount must be a power of two");
+        }
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = newSlots(slotCount);
+        this.currentTick = now / tickMillis;
+    }
+
+    // Generic arrays cannot be created directly; no other Timeout type is ever stored in them.
+    @SuppressWarnings("unchecked")
+    private static <T> Timeout<T>[] newSlots(int count) {
+        return (Timeout<T>[]) new Timeout<?>[count];
+    }
+
+    public Timeout<T> add(T item, long deadline) {
+        long tick = Math.max(currentTick, (deadline + tickMillis - 1) / tickMillis);
+        Timeout<T> timeout = new Timeout<>(item, deadline);
+        timeout.tick = tick;
+        timeout.rounds = (tick - currentTick) / slots.length;
+        timeout.slot = (int) (tick & mask);
+        timeout.next = slots[timeout.slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[timeout.slot] = timeout;
+        timeout.linked = true;
+        size++;
+        return timeout;
+    }
+
+    public void cancel(Timeout<T> timeout) {
+        if (!timeout.linked) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.linked = false;
+        size--;
+    }
+
+    /**
+     * Fires every timeout due at or before {@code now}. Handlers may add new timeouts.
+     */
+    public void advanceTo(long now, Handler<T> handler) {
+        long target = now / tickMillis;
+        while (currentTick <= target && size > 0) {
+            Timeout<T> timeout = slots[(int) (currentTick & mask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    cancel(timeout);
+                    handler.onExpired(timeout.item, timeout.deadline);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            currentTick++;
+        }
+        currentTick = Math.max(currentTick, target + 1);
+    }
+
+    /**
+     * Earliest time at which {@link #advanceTo} fires a pending timeout, that is its deadline rounded
+     * up to a tick, or {@link Long#MAX_VALUE} when empty. Waking up any earlier fires nothing. Scans
+     * every bucket, meant for arming one wake-up alarm rather than for a hot path.
+     */
+    public long nextDeadline() {
+        long min = Long.MAX_VALUE;
+        for (Timeout<T> head : slots) {
+            for (Timeout<T> timeout = head; timeout != null; timeout = timeout.next) {
+                min = Math.min(min, timeout.tick * tickMillis);
+            }
+        }
+        return min;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        size = 0;
+    }
+}
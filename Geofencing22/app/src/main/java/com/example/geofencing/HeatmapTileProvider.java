@@ -0,0 +1,391 @@
+package com.example.geofencing;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a zone/accident density heatmap as raster tiles for a {@code TileOverlay}.
+ * <p>
+ * Tiles are rendered once into a PNG disk cache ({@link #generatePyramid} walks every tile over the
+ * data from {@link #MIN_ZOOM} to {@link #PYRAMID_MAX_ZOOM} on a worker pool) and kept encoded in an
+ * in-memory LRU, so the map only ever pulls ready bytes. Deeper zooms are rendered on demand on the
+ * map's own tile thread and cached the same way.
+ */
+public class HeatmapTileProvider implements TileProvider {
+
+    private static final String TAG = "HeatmapTileProvider";
+
+    static final int TILE_SIZE = 256;
+    static final int MIN_ZOOM = 4;
+    static final int PYRAMID_MAX_ZOOM = 11;
+    static final int MAX_ZOOM = 16;
+
+    private static final int RADIUS = 24;
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private final File cacheDir;
+    private final LruCache<String, Tile> memoryCache;
+
+    // Points in normalized web mercator coordinates (0..1), sorted by x.
+    private final double[] pointX;
+    private final double[] pointY;
+    private final float[] pointWeight;
+
+    private final float[] kernel;
+    private final float[] zoomMaxIntensity = new float[MAX_ZOOM + 1];
+
+    private ExecutorService workers;
+
+    public static class WeightedPoint {
+        public final double latitude;
+        public final double longitude;
+        public final float weight;
+
+        public WeightedPoint(double latitude, double longitude, float weight) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.weight = weight;
+        }
+    }
+
+    public HeatmapTileProvider(Context context, List<WeightedPoint> points) {
+        int n = points.size();
+        long[] order = new long[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        long signature = n;
+        for (int i = 0; i < n; i++) {
+            WeightedPoint point = points.get(i);
+            x[i] = (point.longitude + 180) / 360;
+            double sin = Math.sin(Math.toRadians(point.latitude));
+            y[i] = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+            signature = signature * 31 + Double.doubleToLongBits(point.latitude);
+            signature = signature * 31 + Double.doubleToLongBits(point.longitude);
+            signature = signature * 31 + Float.floatToIntBits(point.weight);
+            order[i] = ((long) (x[i] * Integer.MAX_VALUE) << 32) | i;
+        }
+        Arrays.sort(order);
+        pointX = new double[n];
+        pointY = new double[n];
+        pointWeight = new float[n];
+        for (int i = 0; i < n; i++) {
+            int index = (int) (order[i] & 0xFFFFFFFFL);
+            pointX[i] = x[index];
+            pointY[i] = y[index];
+            pointWeight[i] = points.get(index).weight;
+        }
+
+        kernel = new float[(2 * RADIUS + 1) * (2 * RADIUS + 1)];
+        float sigma = RADIUS / 3f;
+        for (int dy = -RADIUS; dy <= RADIUS; dy++) {
+            for (int dx = -RADIUS; dx <= RADIUS; dx++) {
+                kernel[(dy + RADIUS) * (2 * RADIUS + 1) + dx + RADIUS] = (float) Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
+            }
+        }
+
+        // A new data set gets a new directory, stale tiles are never served.
+        File root = new File(context.getCacheDir(), "heatmap");
+        cacheDir = new File(root, Long.toHexString(signature));
+        deleteOtherGenerations(root, cacheDir);
+
+        memoryCache = new LruCache<String, Tile>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Tile tile) {
+                return tile.data != null ? tile.data.length : 1;
+            }
+        };
+    }
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+            return NO_TILE;
+        }
+        String key = zoom + "/" + x + "/" + y;
+        Tile tile = memoryCache.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        tile = readTile(zoom, x, y);
+        if (tile == null) {
+            tile = renderAndStore(zoom, x, y);
+        }
+        memoryCache.put(key, tile);
+        return tile;
+    }
+
+    /**
+     * Renders every non empty tile of the pyramid into the disk cache in the background.
+     */
+    public synchronized void generatePyramid() {
+        if (workers != null || pointX.length == 0) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        double minY = 1;
+        double maxY = 0;
+        for (double value : pointY) {
+            minY = Math.min(minY, value);
+            maxY = Math.max(maxY, value);
+        }
+        for (int zoom = MIN_ZOOM; zoom <= PYRAMID_MAX_ZOOM; zoom++) {
+            int tiles = 1 << zoom;
+            double margin = (double) RADIUS / (TILE_SIZE * tiles);
+            int x0 = clampTile(pointX[0] - margin, tiles);
+            int x1 = clampTile(pointX[pointX.length - 1] + margin, tiles);
+            int y0 = clampTile(minY - margin, tiles);
+            int y1 = clampTile(maxY + margin, tiles);
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    final int tileX = x;
+                    final int tileY = y;
+                    final int tileZoom = zoom;
+                    workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!tileFile(tileZoom, tileX, tileY).exists()) {
+                                renderAndStore(tileZoom, tileX, tileY);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+        workers.shutdown();
+    }
+
+    public synchronized void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private Tile renderAndStore(int zoom, int x, int y) {
+        float[] intensity = rasterize(zoom, x, y);
+        if (intensity == null) {
+            writeTile(zoom, x, y, new byte[0]);
+            return NO_TILE;
+        }
+        byte[] png = encode(intensity, maxIntensity(zoom));
+        writeTile(zoom, x, y, png);
+        return new Tile(TILE_SIZE, TILE_SIZE, png);
+    }
+
+    // Accumulates the kernel of every point that reaches into the tile, null when none does.
+    private float[] rasterize(int zoom, int tileX, int tileY) {
+        double scale = (double) TILE_SIZE * (1 << zoom);
+        double left = (double) tileX * TILE_SIZE - RADIUS;
+        double right = (double) (tileX + 1) * TILE_SIZE + RADIUS;
+        double top = (double) tileY * TILE_SIZE - RADIUS;
+        double bottom = (double) (tileY + 1) * TILE_SIZE + RADIUS;
+
+        float[] intensity = null;
+        int side = 2 * RADIUS + 1;
+        for (int i = lowerBound(left / scale); i < pointX.length && pointX[i] * scale <= right; i++) {
+            double py = pointY[i] * scale;
+            if (py < top || py > bottom) {
+                continue;
+            }
+            if (intensity == null) {
+                intensity = new float[TILE_SIZE * TILE_SIZE];
+            }
+            int cx = (int) Math.round(pointX[i] * scale) - tileX * TILE_SIZE;
+            int cy = (int) Math.round(py) - tileY * TILE_SIZE;
+            int dx0 = Math.max(-RADIUS, -cx);
+            int dx1 = Math.min(RADIUS, TILE_SIZE - 1 - cx);
+            int dy0 = Math.max(-RADIUS, -cy);
+            int dy1 = Math.min(RADIUS, TILE_SIZE - 1 - cy);
+            float weight = pointWeight[i];
+            for (int dy = dy0; dy <= dy1; dy++) {
+                int row = (cy + dy) * TILE_SIZE + cx;
+                int kernelRow = (dy + RADIUS) * side + RADIUS;
+                for (int dx = dx0; dx <= dx1; dx++) {
+                    intensity[row + dx] += weight * kernel[kernelRow + dx];
+                }
+            }
+        }
+        return intensity;
+    }
+
+    // Rough peak for the zoom so neighbouring tiles share one colour scale.
+    private synchronized float maxIntensity(int zoom) {
+        if (zoomMaxIntensity[zoom] > 0) {
+            return zoomMaxIntensity[zoom];
+        }
+        double scale = (double) TILE_SIZE * (1 << zoom) / RADIUS;
+        HashMap<Long, Float> bins = new HashMap<>();
+        float max = 0;
+        for (int i = 0; i < pointX.length; i++) {
+            long bin = ((long) (pointX[i] * scale) << 32) | (long) (pointY[i] * scale);
+            Float sum = bins.get(bin);
+            float value = (sum != null ? sum : 0) + pointWeight[i];
+            bins.put(bin, value);
+            max = Math.max(max, value);
+        }
+        zoomMaxIntensity[zoom] = Math.max(max, 1f);
+        return zoomMaxIntensity[zoom];
+    }
+
+    private static byte[] encode(float[] intensity, float max) {
+        int[] pixels = new int[intensity.length];
+        for (int i = 0; i < intensity.length; i++) {
+            pixels[i] = colorFor(Math.min(1f, intensity[i] / max));
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    // Transparent -> green -> yellow -> red.
+    private static int colorFor(float value) {
+        if (value < 0.02f) {
+            return 0;
+        }
+        int alpha = (int) (64 + 160 * value);
+        int red;
+        int green;
+        if (value < 0.5f) {
+            red = (int) (255 * value * 2);
+            green = 200;
+        } else {
+            red = 255;
+            green = (int) (200 * (1 - value) * 2);
+        }
+        return (alpha << 24) | (red << 16) | (green << 8);
+    }
+
+    private int lowerBound(double x) {
+        int low = 0;
+        int high = pointX.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pointX[mid] < x) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int clampTile(double value, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) (value * tiles)));
+    }
+
+    private File tileFile(int zoom, int x, int y) {
+        return new File(cacheDir, zoom + File.separator + x + File.separator + y + ".png");
+    }
+
+    // An empty file marks a tile with nothing on it.
+    private Tile readTile(int zoom, int x, int y) {
+        File file = tileFile(zoom, x, y);
+        if (!file.exists()) {
+            return null;
+        }
+        if (file.length() == 0) {
+            return NO_TILE;
+        }
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count < 0) {
+                    return null;
+                }
+                read += count;
+            }
+            return new Tile(TILE_SIZE, TILE_SIZE, data);
+        } catch (IOException e) {
+            Log.d(TAG, "readTile: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeTile(int zoom, int x, int y, byte[] data) {
+        File file = tileFile(zoom, x, y);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            return;
+        }
+        File tmp = new File(dir, y + "." + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "writeTile: " + e.getLocalizedMessage());
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void deleteOtherGenerations(File root, File keep) {
+        File[] generations = root.listFiles();
+        if (generations == null) {
+            return;
+        }
+        for (File generation : generations) {
+            if (!generation.equals(keep)) {
+                deleteRecursively(generation);
+            }
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    static List<WeightedPoint> fromZones(List<ZoneRecord> zones) {
+        List<WeightedPoint> points = new ArrayList<>(zones.size());
+        for (ZoneRecord zone : zones) {
+            points.add(new WeightedPoint(zone.latitude, zone.longitude, zone.severity));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.geofencing;
+
+import java.util.Arrays;
+
+/**
+ * Online HMM map matcher over a {@link RoadGraph}.
+ * <p>
+ * Each fix gets up to {@link #MAX_CANDIDATE_EDGES} nearby edges as hidden states, one per allowed
+ * travel direction. Emission scores the distance (and bearing, when the fix has one) to the edge,
+ * transition scores how well the route distance between two states agrees with the straight line
+ * distance between the fixes. Only the last Viterbi column is kept, so the matcher answers
+ * "where are we now" with a fixed amount of work per fix: the route search from every previous
+ * state is capped at {@link #MAX_SEARCH_NODES} settled nodes.
+ * <p>
+ * Not thread safe, feed it from one thread.
+ */
+public class MapMatcher {
+
+    private static final float SEARCH_RADIUS = 50f;
+    private static final int MAX_CANDIDATE_EDGES = 8;
+    private static final int MAX_STATES = MAX_CANDIDATE_EDGES * 2;
+    private static final float SIGMA_DISTANCE = 5f;
+    private static final float SIGMA_BEARING = 30f;
+    private static final float BETA = 10f;
+    private static final int MAX_SEARCH_NODES = 256;
+    private static final long MAX_GAP_MS = 120 * 1000;
+
+    private final RoadGraph graph;
+
+    private final int[] candidateEdge = new int[MAX_CANDIDATE_EDGES];
+    private final float[] candidateDistance = new float[MAX_CANDIDATE_EDGES];
+    private final float[] candidateT = new float[MAX_CANDIDATE_EDGES];
+    private final int[] edgeStamp;
+    private int stamp;
+
+    private int[] prevEdge = new int[MAX_STATES];
+    private int[] prevDirection = new int[MAX_STATES];
+    private float[] prevT = new float[MAX_STATES];
+    private float[] prevScore = new float[MAX_STATES];
+    private int prevCount;
+
+    private int[] curEdge = new int[MAX_STATES];
+    private int[] curDirection = new int[MAX_STATES];
+    private float[] curT = new float[MAX_STATES];
+    private float[] curScore = new float[MAX_STATES];
+    private final float[] curEmission = new float[MAX_STATES];
+
+    private final float[] nodeDistance;
+    private final int[] touched = new int[MAX_SEARCH_NODES * 8];
+    private int touchedCount;
+    private final int[] heapNode = new int[MAX_SEARCH_NODES * 8];
+    private final float[] heapKey = new float[MAX_SEARCH_NODES * 8];
+    private int heapSize;
+
+    private float lastX;
+    private float lastY;
+    private long lastTime;
+
+    private int matchedEdge = -1;
+    private int matchedDirection;
+    private float matchedConfidence;
+
+    public MapMatcher(RoadGraph graph) {
+        this.graph = graph;
+        edgeStamp = new int[graph.edgeCount];
+        nodeDistance = new float[graph.nodeCount];
+        Arrays.fill(nodeDistance, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Feeds one fix. Bearing is in degrees, pass {@link Float#NaN} when unknown.
+     *
+     * @return whether the fix could be matched to an edge
+     */
+    public boolean update(double latitude, double longitude, float bearing, long timeMillis) {
+        float x = graph.projectX(longitude);
+        float y = graph.projectY(latitude);
+
+        int candidates = findCandidates(x, y);
+        if (candidates == 0) {
+            reset();
+            return false;
+        }
+
+        int states = 0;
+        for (int i = 0; i < candidates; i++) {
+            int edge = candidateEdge[i];
+            float emission = -0.5f * square(candidateDistance[i] / SIGMA_DISTANCE);
+            for (int direction = RoadGraph.DIRECTION_FORWARD; direction <= RoadGraph.DIRECTION_BACKWARD; direction++) {
+                if (direction == RoadGraph.DIRECTION_BACKWARD && graph.isOneway(edge)) {
+                    continue;
+                }
+                float score = emission;
+                if (!Float.isNaN(bearing)) {
+                    score -= 0.5f * square(angleBetween(bearing, edgeBearing(edge, direction)) / SIGMA_BEARING);
+                }
+                curEdge[states] = edge;
+                curDirection[states] = direction;
+                curT[states] = candidateT[i];
+                curEmission[states] = score;
+                curScore[states] = Float.NEGATIVE_INFINITY;
+                states++;
+            }
+        }
+
+        boolean connected = false;
+        if (prevCount > 0 && timeMillis - lastTime <= MAX_GAP_MS && timeMillis >= lastTime) {
+            float straight = (float) Math.hypot(x - lastX, y - lastY);
+            float bound = 2 * straight + 2 * SEARCH_RADIUS;
+            for (int p = 0; p < prevCount; p++) {
+                int exitNode = prevDirection[p] == RoadGraph.DIRECTION_FORWARD ? graph.edgeTo[prevEdge[p]] : graph.edgeFrom[prevEdge[p]];
+                float exitOffset = graph.edgeLength[prevEdge[p]] * (prevDirection[p] == RoadGraph.DIRECTION_FORWARD ? 1 - prevT[p] : prevT[p]);
+                searchFrom(exitNode, bound);
+                for (int s = 0; s < states; s++) {
+                    float route = routeDistance(p, s, exitOffset);
+                    if (route == Float.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    float score = prevScore[p] - Math.abs(route - straight) / BETA + curEmission[s];
+                    if (score > curScore[s]) {
+                        curScore[s] = score;
+                        connected = true;
+                    }
+                }
+                clearSearch();
+            }
+        }
+        if (!connected) {
+            // First fix, long gap or no route between the columns: restart the chain here.
+            System.arraycopy(curEmission, 0, curScore, 0, states);
+        }
+
+        int best = -1;
+        for (int s = 0; s < states; s++) {
+            if (curScore[s] != Float.NEGATIVE_INFINITY && (best < 0 || curScore[s] > curScore[best])) {
+                best = s;
+            }
+        }
+        float max = curScore[best];
+        double total = 0;
+        for (int s = 0; s < states; s++) {
+            curScore[s] -= max;
+            total += Math.exp(curScore[s]);
+        }
+        matchedEdge = curEdge[best];
+        matchedDirection = curDirection[best];
+        matchedConfidence = (float) (1 / total);
+
+        swapColumns(states);
+        lastX = x;
+        lastY = y;
+        lastTime = timeMillis;
+        return true;
+    }
+
+    public void reset() {
+        prevCount = 0;
+        matchedEdge = -1;
+        matchedConfidence = 0;
+    }
+
+    /**
+     * Edge of the last matched fix, or -1 when the last fix could not be matched.
+     */
+    public int getMatchedEdge() {
+        return matchedEdge;
+    }
+
+    public int getMatchedDirection() {
+        return matchedDirection;
+    }
+
+    /**
+     * Share of the probability mass held by the matched state, 0..1.
+     */
+    public float getMatchedConfidence() {
+        return matchedConfidence;
+    }
+
+    private int findCandidates(float x, float y) {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(edgeStamp, 0);
+            stamp = 1;
+        }
+        int count = 0;
+        int c0 = graph.column(x - SEARCH_RADIUS);
+        int c1 = graph.column(x + SEARCH_RADIUS);
+        int r0 = graph.row(y - SEARCH_RADIUS);
+        int r1 = graph.row(y + SEARCH_RADIUS);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = graph.cell(r, c);
+                if (cell < 0) {
+                    continue;
+                }
+                for (int i = graph.cellStart[cell]; i < graph.cellStart[cell + 1]; i++) {
+                    int edge = graph.cellEdges[i];
+                    if (edgeStamp[edge] == stamp) {
+                        continue;
+                    }
+                    edgeStamp[edge] = stamp;
+
+                    float ax = graph.nodeX[graph.edgeFrom[edge]];
+                    float ay = graph.nodeY[graph.edgeFrom[edge]];
+                    float dx = graph.nodeX[graph.edgeTo[edge]] - ax;
+                    float dy = graph.nodeY[graph.edgeTo[edge]] - ay;
+                    float lengthSquared = dx * dx + dy * dy;
+                    float t = lengthSquared == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSquared;
+                    t = Math.max(0, Math.min(1, t));
+                    float distance = (float) Math.hypot(ax + t * dx - x, ay + t * dy - y);
+                    if (distance > SEARCH_RADIUS) {
+                        continue;
+                    }
+
+                    // Keep the closest edges, sorted by distance.
+                    int slot;
+                    if (count < MAX_CANDIDATE_EDGES) {
+                        slot = count++;
+                    } else if (distance < candidateDistance[MAX_CANDIDATE_EDGES - 1]) {
+                        slot = MAX_CANDIDATE_EDGES - 1;
+                    } else {
+                        continue;
+                    }
+                    while (slot > 0 && candidateDistance[slot - 1] > distance) {
+                        candidateEdge[slot] = candidateEdge[slot - 1];
+                        candidateDistance[slot] = candidateDistance[slot - 1];
+                        candidateT[slot] = candidateT[slot - 1];
+                        slot--;
+                    }
+                    candidateEdge[slot] = edge;
+                    candidateDistance[slot] = distance;
+                    candidateT[slot] = t;
+                }
+            }
+        }
+        return count;
+    }
+
+    private float routeDistance(int p, int s, float exitOffset) {
+        int edge = curEdge[s];
+        boolean forward = curDirection[s] == RoadGraph.DIRECTION_FORWARD;
+        if (edge == prevEdge[p] && curDirection[s] == prevDirection[p]) {
+            float along = (forward ? curT[s] - prevT[p] : prevT[p] - curT[s]) * graph.edgeLength[edge];
+            if (along >= -1f) {
+                return Math.max(0, along);
+            }
+        }
+        int entryNode = forward ? graph.edgeFrom[edge] : graph.edgeTo[edge];
+        float toEntry = nodeDistance[entryNode];
+        if (toEntry == Float.POSITIVE_INFINITY) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float entryOffset = graph.edgeLength[edge] * (forward ? curT[s] : 1 - curT[s]);
+        return exitOffset + toEntry + entryOffset;
+    }
+
+    // Bounded Dijkstra from one node, respecting one-way edges.
+    private void searchFrom(int source, float bound) {
+        heapSize = 0;
+        setDistance(source, 0);
+        push(source, 0);
+        int settled = 0;
+        while (heapSize > 0 && settled < MAX_SEARCH_NODES) {
+            float distance = heapKey[0];
+            int node = pop();
+            if (distance > nodeDistance[node]) {
+                continue;
+            }
+            if (distance > bound) {
+                break;
+            }
+            settled++;
+            for (int i = graph.nodeEdgeStart[node]; i < graph.nodeEdgeStart[node + 1]; i++) {
+                int edge = graph.nodeEdges[i];
+                int next;
+                if (graph.edgeFrom[edge] == node) {
+                    next = graph.edgeTo[edge];
+                } else if (!graph.isOneway(edge)) {
+                    next = graph.edgeFrom[edge];
+                } else {
+                    continue;
+                }
+                float candidate = distance + graph.edgeLength[edge];
+                if (candidate < nodeDistance[next] && candidate <= bound) {
+                    if (!setDistance(next, candidate) || !push(next, candidate)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean setDistance(int node, float distance) {
+        if (nodeDistance[node] == Float.POSITIVE_INFINITY) {
+            if (touchedCount == touched.length) {
+                return false;
+            }
+            touched[touchedCount++] = node;
+        }
+        nodeDistance[node] = distance;
+        return true;
+    }
+
+    private void clearSearch() {
+        for (int i = 0; i < touchedCount; i++) {
+            nodeDistance[touched[i]] = Float.POSITIVE_INFINITY;
+        }
+        touchedCount = 0;
+    }
+
+    private boolean push(int node, float key) {
+        if (heapSize == heapNode.length) {
+            return false;
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapKey[parent] <= key) {
+                break;
+            }
+            heapNode[i] = heapNode[parent];
+            heapKey[i] = heapKey[parent];
+            i = parent;
+        }
+        heapNode[i] = node;
+        heapKey[i] = key;
+        return true;
+    }
+
+    private int pop() {
+        int top = heapNode[0];
+        int lastNode = heapNode[--heapSize];
+        float lastKey = heapKey[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+                child++;
+            }
+            if (heapKey[child] >= lastKey) {
+                break;
+            }
+            heapNode[i] = heapNode[child];
+            heapKey[i] = heapKey[child];
+            i = child;
+        }
+        heapNode[i] = lastNode;
+        heapKey[i] = lastKey;
+        return top;
+    }
+
+    private void swapColumns(int states) {
+        int[] edges = prevEdge;
+        prevEdge = curEdge;
+        curEdge = edges;
+        int[] directions = prevDirection;
+        prevDirection = curDirection;
+        curDirection = directions;
+        float[] ts = prevT;
+        prevT = curT;
+        curT = ts;
+        float[] scores = prevScore;
+        prevScore = curScore;
+        curScore = scores;
+        prevCount = states;
+    }
+
+    private float edgeBearing(int edge, int direction) {
+        int from = direction == RoadGraph.DIRECTION_FORWARD ? graph.edgeFrom[edge] : graph.edgeTo[edge];
+        int to = direction == RoadGraph.DIRECTION_FORWARD ? graph.edgeTo[edge] : graph.edgeFrom[edge];
+        double degrees = Math.toDegrees(Math.atan2(graph.nodeX[to] - graph.nodeX[from], graph.nodeY[to] - graph.nodeY[from]));
+        return (float) (degrees < 0 ? degrees + 360 : degrees);
+    }
+
+    private static float angleBetween(float a, float b) {
+        float difference = Math.abs(a - b) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+
+    private static float square(float value) {
+        return value * value;
+    }
+}
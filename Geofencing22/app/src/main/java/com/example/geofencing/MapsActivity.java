@@ -3,13 +3,14 @@ package com.example.geofencing;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import xasd
 import androidx.fragment.app.FragmentActivity;
 
 import android.Manifest;
 import android.app.PendingIntent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
+import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
@@ -27,9 +28,15 @@ import com.google.android.gms.maps.internal.ICameraUpdateFactoryDelegate;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class MapsActivity extends FragmentActivity implements OnMapReadyCallback{
 
     private static final String TAG = "MapsActivity";
@@ -37,6 +44,12 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
     private GoogleMap mMap;
     private GeofencingClient geofencingClient;
     private GeofenceHelper geofenceHelper;
+    private GeofenceSnapshot geofenceSnapshot;
+    private HeatmapTileProvider heatmapTileProvider;
+    private final GeofenceRearmReceiver providersReceiver = new GeofenceRearmReceiver();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Activity.isDestroyed() needs API 17, minSdk is 16.
+    private boolean destroyed;
 
     private float GEOFENCE_RADIUS = 200;
     private String GEOFENCE_ID = "SOME_GEOFENCE_ID";
@@ -55,6 +68,13 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
 
         geofencingClient = LocationServices.getGeofencingClient(this);
         geofenceHelper = new GeofenceHelper(this);
+        geofenceSnapshot = GeofenceSnapshot.getInstance(this);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                syncZones();
+            }
+        });
     }
 
 
@@ -79,11 +99,73 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
         enableUserLocation();
         addCircle(mylocation,50);
         addGeofence(mylocation,50);
+        addHeatmap();
+
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        registerReceiver(providersReceiver, new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        unregisterReceiver(providersReceiver);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        if (heatmapTileProvider != null) {
+            heatmapTileProvider.shutdown();
+            heatmapTileProvider = null;
+        }
+        executor.shutdownNow();
+    }
 
+    private void syncZones() {
+        String url = getString(R.string.zone_sync_url);
+        if (url.isEmpty()) {
+            return;
+        }
+        try {
+            new ZoneDeltaSync(this, url).sync();
+        } catch (IOException e) {
+            Log.d(TAG, "syncZones: " + e.getLocalizedMessage());
+        }
+    }
+
+    private void addHeatmap() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ZoneRecord> zones = ZoneDatabase.getInstance(MapsActivity.this).getAllZones();
+                if (zones.isEmpty()) {
+                    return;
+                }
+                final HeatmapTileProvider provider = new HeatmapTileProvider(MapsActivity.this, HeatmapTileProvider.fromZones(zones));
+                provider.generatePyramid();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing() || destroyed || mMap == null) {
+                            provider.shutdown();
+                            return;
+                        }
+                        heatmapTileProvider = provider;
+                        mMap.addTileOverlay(new TileOverlayOptions().tileProvider(provider).fadeIn(false));
+                    }
+                });
+            }
+        });
     }
-    private void addGeofence(LatLng latLng, float radius) {
+    private void addGeofence(final LatLng latLng, final float radius) {
 
-        Geofence geofence = geofenceHelper.getGeofence(GEOFENCE_ID, latLng, radius, Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT);
+        final int transitionTypes = Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT;
+        Geofence geofence = geofenceHelper.getGeofence(GEOFENCE_ID, latLng, radius, transitionTypes);
         GeofencingRequest geofencingRequest = geofenceHelper.getGeofencingRequest(geofence);
         PendingIntent pendingIntent = geofenceHelper.getPendingIntent();
 
@@ -92,6 +174,14 @@ public class MapsActivity extends FragmentActivity implements OnMapReadyCallback
                     @Override
                     public void onSuccess(Void aVoid) {
                         Log.d(TAG, "onSuccess: Geofence Added...");
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                geofenceSnapshot.put(GEOFENCE_ID, latLng, radius, transitionTypes);
+                                ZoneDatabase.getInstance(MapsActivity.this).putZone(new ZoneRecord(GEOFENCE_ID, latLng.latitude, latLng.longitude, radius,
+                                        "Accident prone zone", "Accident prone zone, drive with care", ZoneRecord.SEVERITY_HIGH));
+                            }
+                        });
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
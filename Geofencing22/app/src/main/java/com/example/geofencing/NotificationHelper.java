@@ -14,6 +14,7 @@ import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
 
+import java.util.List;
 import java.util.Random;
 
 public class NotificationHelper extends ContextWrapper {
@@ -27,6 +28,8 @@ public class NotificationHelper extends ContextWrapper {
         }
     }
 
+    private static final int ZONE_SUMMARY_NOTIFICATION_ID = 2608;
+
     private String CHANNEL_NAME = "High priority channel";
     private String CHANNEL_ID = "com.example.notifications" + CHANNEL_NAME;
 
@@ -62,4 +65,38 @@ public class NotificationHelper extends ContextWrapper {
 
     }
 
+    /**
+     * Posts one combined alert for all zones of a geofence event. Lines are expected in priority
+     * order; a newer summary replaces the previous one instead of stacking up.
+     */
+    public void sendZoneSummaryNotification(String title, String body, List<String> lines, Class activityName) {
+
+        Intent intent = new Intent(this, activityName);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 267, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Style style;
+        if (lines.size() > 1) {
+            NotificationCompat.InboxStyle inboxStyle = new NotificationCompat.InboxStyle().setBigContentTitle(title).setSummaryText(body);
+            for (String line : lines) {
+                inboxStyle.addLine(line);
+            }
+            style = inboxStyle;
+        } else {
+            style = new NotificationCompat.BigTextStyle().setBigContentTitle(title).bigText(body);
+        }
+
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(body)
+                .setSmallIcon(R.drawable.ic_launcher_background)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setStyle(style)
+                .setNumber(lines.size())
+                .setContentIntent(pendingIntent)
+                .setAutoCancel(true)
+                .build();
+
+        NotificationManagerCompat.from(this).notify(ZONE_SUMMARY_NOTIFICATION_ID, notification);
+    }
+
 }
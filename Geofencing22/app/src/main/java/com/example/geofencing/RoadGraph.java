@@ -0,0 +1,262 @@
+package com.example.geofencing;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only road network extract held in primitive arrays.
+ * <p>
+ * Nodes are projected to a local plane in meters, edges are straight segments between two nodes
+ * and a uniform grid over the extract gives the edges near a point. Only the grid cells some edge
+ * crosses are stored, so the index follows the road network and not the extract's bounding box. Each zone can be tagged with
+ * the edges and directions it applies to; zones without tags apply everywhere.
+ * <p>
+ * File layout (big endian): magic, node count, (latE6, lonE6) per node, edge count,
+ * (from, to, flags) per edge, zone count, then per zone its id, tag count and (edge, direction mask) tags.
+ */
+public class RoadGraph {
+
+    static final int MAGIC = 0x52475831; // "RGX1"
+
+    static final int FLAG_ONEWAY = 1;
+
+    static final int DIRECTION_FORWARD = 0;
+    static final int DIRECTION_BACKWARD = 1;
+
+    private static final int MASK_FORWARD = 1;
+    private static final int MASK_BACKWARD = 2;
+
+    private static final float CELL_SIZE = 100f;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    final int nodeCount;
+    final float[] nodeX;
+    final float[] nodeY;
+
+    final int edgeCount;
+    final int[] edgeFrom;
+    final int[] edgeTo;
+    final byte[] edgeFlags;
+    final float[] edgeLength;
+
+    // Edges incident to each node, CSR style.
+    final int[] nodeEdgeStart;
+    final int[] nodeEdges;
+
+    final int gridColumns;
+    final int gridRows;
+    // Occupied cells sorted by (row * gridColumns + column), their edges CSR style.
+    final long[] cellKeys;
+    final int[] cellStart;
+    final int[] cellEdges;
+
+    private final double originLat;
+    private final double originLon;
+    private final double metersPerDegreeLon;
+
+    // Sorted (edge * 2 + direction) keys per tagged zone.
+    private final Map<String, int[]> zoneTags;
+
+    private RoadGraph(int[] latE6, int[] lonE6, int[] edgeFrom, int[] edgeTo, byte[] edgeFlags, Map<String, int[]> zoneTags) {
+        this.nodeCount = latE6.length;
+        this.edgeCount = edgeFrom.length;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeFlags = edgeFlags;
+        this.zoneTags = zoneTags;
+
+        int minLat = Integer.MAX_VALUE;
+        int minLon = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE;
+        for (int i = 0; i < nodeCount; i++) {
+            minLat = Math.min(minLat, latE6[i]);
+            minLon = Math.min(minLon, lonE6[i]);
+            maxLat = Math.max(maxLat, latE6[i]);
+        }
+        if (nodeCount == 0) {
+            minLat = 0;
+            minLon = 0;
+            maxLat = 0;
+        }
+        originLat = minLat / 1e6;
+        originLon = minLon / 1e6;
+        metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians((minLat + maxLat) / 2e6));
+
+        nodeX = new float[nodeCount];
+        nodeY = new float[nodeCount];
+        float maxX = 0;
+        float maxY = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            nodeX[i] = (float) ((lonE6[i] / 1e6 - originLon) * metersPerDegreeLon);
+            nodeY[i] = (float) ((latE6[i] / 1e6 - originLat) * METERS_PER_DEGREE);
+            maxX = Math.max(maxX, nodeX[i]);
+            maxY = Math.max(maxY, nodeY[i]);
+        }
+
+        edgeLength = new float[edgeCount];
+        nodeEdgeStart = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            edgeLength[e] = (float) Math.hypot(nodeX[edgeTo[e]] - nodeX[edgeFrom[e]], nodeY[edgeTo[e]] - nodeY[edgeFrom[e]]);
+            nodeEdgeStart[edgeFrom[e] + 1]++;
+            nodeEdgeStart[edgeTo[e] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            nodeEdgeStart[i + 1] += nodeEdgeStart[i];
+        }
+        nodeEdges = new int[nodeEdgeStart[nodeCount]];
+        int[] fill = Arrays.copyOf(nodeEdgeStart, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            nodeEdges[fill[edgeFrom[e]]++] = e;
+            nodeEdges[fill[edgeTo[e]]++] = e;
+        }
+
+        gridColumns = (int) (maxX / CELL_SIZE) + 1;
+        gridRows = (int) (maxY / CELL_SIZE) + 1;
+
+        // Collect every (cell, edge) pair, then keep only the cells that got one.
+        int pairs = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            pairs = addToCells(e, pairs, null, null);
+        }
+        long[] pairKeys = new long[pairs];
+        int[] pairEdges = new int[pairs];
+        pairs = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            pairs = addToCells(e, pairs, pairKeys, pairEdges);
+        }
+        long[] sorted = pairKeys.clone();
+        Arrays.sort(sorted);
+        int cells = 0;
+        for (int i = 0; i < pairs; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[cells++] = sorted[i];
+            }
+        }
+        cellKeys = Arrays.copyOf(sorted, cells);
+        cellStart = new int[cells + 1];
+        int[] pairCells = new int[pairs];
+        for (int i = 0; i < pairs; i++) {
+            pairCells[i] = Arrays.binarySearch(cellKeys, pairKeys[i]);
+            cellStart[pairCells[i] + 1]++;
+        }
+        for (int i = 0; i < cells; i++) {
+            cellStart[i + 1] += cellStart[i];
+        }
+        cellEdges = new int[pairs];
+        int[] cursor = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < pairs; i++) {
+            cellEdges[cursor[pairCells[i]]++] = pairEdges[i];
+        }
+    }
+
+    // Counts the cells the edge's bounding box covers, writing them from pairs on when keys is set.
+    private int addToCells(int e, int pairs, long[] keys, int[] edges) {
+        int c0 = column(Math.min(nodeX[edgeFrom[e]], nodeX[edgeTo[e]]));
+        int c1 = column(Math.max(nodeX[edgeFrom[e]], nodeX[edgeTo[e]]));
+        int r0 = row(Math.min(nodeY[edgeFrom[e]], nodeY[edgeTo[e]]));
+        int r1 = row(Math.max(nodeY[edgeFrom[e]], nodeY[edgeTo[e]]));
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                if (keys != null) {
+                    keys[pairs] = (long) r * gridColumns + c;
+                    edges[pairs] = e;
+                }
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    public static RoadGraph read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a road graph extract");
+        }
+        int nodes = in.readInt();
+        int[] latE6 = new int[nodes];
+        int[] lonE6 = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            latE6[i] = in.readInt();
+            lonE6[i] = in.readInt();
+        }
+        int edges = in.readInt();
+        int[] from = new int[edges];
+        int[] to = new int[edges];
+        byte[] flags = new byte[edges];
+        for (int e = 0; e < edges; e++) {
+            from[e] = in.readInt();
+            to[e] = in.readInt();
+            flags[e] = in.readByte();
+            if (from[e] < 0 || from[e] >= nodes || to[e] < 0 || to[e] >= nodes) {
+                throw new IOException("Edge " + e + " points outside the node table");
+            }
+        }
+        int zones = in.readInt();
+        Map<String, int[]> tags = new HashMap<>(zones * 2);
+        for (int z = 0; z < zones; z++) {
+            String id = in.readUTF();
+            int count = in.readInt();
+            int[] keys = new int[count * 2];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                int edge = in.readInt();
+                int mask = in.readByte();
+                if ((mask & MASK_FORWARD) != 0) {
+                    keys[size++] = edge * 2 + DIRECTION_FORWARD;
+                }
+                if ((mask & MASK_BACKWARD) != 0) {
+                    keys[size++] = edge * 2 + DIRECTION_BACKWARD;
+                }
+            }
+            keys = Arrays.copyOf(keys, size);
+            Arrays.sort(keys);
+            tags.put(id, keys);
+        }
+        return new RoadGraph(latE6, lonE6, from, to, flags, tags);
+    }
+
+    float projectX(double longitude) {
+        return (float) ((longitude - originLon) * metersPerDegreeLon);
+    }
+
+    float projectY(double latitude) {
+        return (float) ((latitude - originLat) * METERS_PER_DEGREE);
+    }
+
+    int column(float x) {
+        return Math.max(0, Math.min(gridColumns - 1, (int) (x / CELL_SIZE)));
+    }
+
+    int row(float y) {
+        return Math.max(0, Math.min(gridRows - 1, (int) (y / CELL_SIZE)));
+    }
+
+    /**
+     * Index of the cell into {@link #cellStart}, or -1 when no edge crosses it.
+     */
+    int cell(int row, int column) {
+        int index = Arrays.binarySearch(cellKeys, (long) row * gridColumns + column);
+        return index >= 0 ? index : -1;
+    }
+
+    boolean isOneway(int edge) {
+        return (edgeFlags[edge] & FLAG_ONEWAY) != 0;
+    }
+
+    /**
+     * Whether the zone applies to a vehicle travelling along {@code edge} in {@code direction}.
+     */
+    public boolean zoneAppliesTo(String zoneId, int edge, int direction) {
+        int[] keys = zoneTags.get(zoneId);
+        return keys == null || Arrays.binarySearch(keys, edge * 2 + direction) >= 0;
+    }
+
+    public boolean isZoneTagged(String zoneId) {
+        return zoneTags.containsKey(zoneId);
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.geofencing;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops zone triggers that belong to another carriageway, a flyover or a service road.
+ * <p>
+ * Uses the road graph extract {@code roads.bin} built by {@code RoadGraphBuilder} in the tools module: a copy pushed
+ * into the app files dir wins, otherwise the one bundled in the app assets is used. Without an
+ * extract the filter is off and every zone is let through, as it is while the match is not confident.
+ * <p>
+ * The matcher needs a steady stream of fixes to follow the road, so while the driver is inside a
+ * zone fused location updates come every few seconds through {@link RoadMatchLocationReceiver}.
+ * That costs GPS power: the stream starts on the first ENTER or DWELL, stops on the EXIT from the
+ * last zone and runs out on its own after {@link #TRACKING_EXPIRATION_MILLIS} in case an EXIT is lost.
+ */
+public class RoadMatchFilter {
+
+    private static final String TAG = "RoadMatchFilter";
+
+    static final String GRAPH_FILE_NAME = "roads.bin";
+    private static final float MIN_CONFIDENCE = 0.6f;
+
+    private static final long TRACKING_INTERVAL_MILLIS = 5 * 1000;
+    private static final long TRACKING_FASTEST_INTERVAL_MILLIS = 1000;
+    private static final long TRACKING_EXPIRATION_MILLIS = 30 * 60 * 1000;
+    private static final int TRACKING_REQUEST_CODE = 2610;
+
+    private static final String PREFS_NAME = "road_match";
+    // Zones the driver is inside, kept across process restarts so the last EXIT still stops tracking.
+    private static final String KEY_INSIDE = "inside_zones";
+
+    private static RoadMatchFilter instance;
+
+    private final RoadGraph graph;
+    private final MapMatcher matcher;
+    private long lastFixTime = Long.MIN_VALUE;
+
+    public static synchronized RoadMatchFilter getInstance(Context context) {
+        if (instance == null) {
+            instance = new RoadMatchFilter(loadGraph(context));
+        }
+        return instance;
+    }
+
+    private RoadMatchFilter(RoadGraph graph) {
+        this.graph = graph;
+        this.matcher = graph != null ? new MapMatcher(graph) : null;
+    }
+
+    public boolean isAvailable() {
+        return matcher != null;
+    }
+
+    /**
+     * Follows the zones the driver is inside and runs the location stream while there is one.
+     * Needs location permission, callers check it.
+     */
+    public synchronized void onTransition(Context context, Collection<String> ids, int transitionType) {
+        if (!isAvailable()) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        Set<String> inside = new HashSet<>(prefs.getStringSet(KEY_INSIDE, Collections.<String>emptySet()));
+        boolean wasInside = !inside.isEmpty();
+        if (transitionType == Geofence.GEOFENCE_TRANSITION_EXIT) {
+            inside.removeAll(ids);
+        } else {
+            inside.addAll(ids);
+        }
+        prefs.edit().putStringSet(KEY_INSIDE, inside).apply();
+        if (!inside.isEmpty()) {
+            // Asking again renews the expiration.
+            startTracking(context);
+        } else if (wasInside) {
+            stopTracking(context);
+        }
+    }
+
+    /**
+     * Restarts the location stream after the OS dropped it, if the driver was inside a zone.
+     */
+    public synchronized void resumeTracking(Context context) {
+        if (isAvailable() && !context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getStringSet(KEY_INSIDE, Collections.<String>emptySet()).isEmpty()) {
+            startTracking(context);
+        }
+    }
+
+    private void startTracking(Context context) {
+        LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                .setInterval(TRACKING_INTERVAL_MILLIS)
+                .setFastestInterval(TRACKING_FASTEST_INTERVAL_MILLIS)
+                .setExpirationDuration(TRACKING_EXPIRATION_MILLIS);
+        try {
+            LocationServices.getFusedLocationProviderClient(context).requestLocationUpdates(request, trackingIntent(context));
+        } catch (SecurityException e) {
+            Log.d(TAG, "startTracking: " + e.getLocalizedMessage());
+        }
+    }
+
+    private void stopTracking(Context context) {
+        LocationServices.getFusedLocationProviderClient(context).removeLocationUpdates(trackingIntent(context));
+    }
+
+    private static PendingIntent trackingIntent(Context context) {
+        return PendingIntent.getBroadcast(context, TRACKING_REQUEST_CODE,
+                new Intent(context, RoadMatchLocationReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    public synchronized void onLocation(Location location) {
+        // Geofence events and the location stream arrive separately, keep the chain in time order.
+        if (matcher == null || location == null || location.getTime() <= lastFixTime) {
+            return;
+        }
+        lastFixTime = location.getTime();
+        float bearing = location.hasBearing() ? location.getBearing() : Float.NaN;
+        matcher.update(location.getLatitude(), location.getLongitude(), bearing, location.getTime());
+    }
+
+    public synchronized boolean appliesTo(String zoneId) {
+        if (matcher == null || !graph.isZoneTagged(zoneId)) {
+            return true;
+        }
+        int edge = matcher.getMatchedEdge();
+        if (edge < 0 || matcher.getMatchedConfidence() < MIN_CONFIDENCE) {
+            return true;
+        }
+        return graph.zoneAppliesTo(zoneId, edge, matcher.getMatchedDirection());
+    }
+
+    private static RoadGraph loadGraph(Context context) {
+        InputStream in = null;
+        try {
+            File file = new File(context.getFilesDir(), GRAPH_FILE_NAME);
+            if (file.exists()) {
+                in = new FileInputStream(file);
+            } else {
+                try {
+                    in = context.getAssets().open(GRAPH_FILE_NAME);
+                } catch (FileNotFoundException e) {
+                    // No extract shipped, matching stays off.
+                    return null;
+                }
+            }
+            RoadGraph graph = RoadGraph.read(in);
+            Log.d(TAG, "loadGraph: " + graph.nodeCount + " nodes, " + graph.edgeCount + " edges");
+            return graph;
+        } catch (IOException e) {
+            Log.d(TAG, "loadGraph: " + e.getLocalizedMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.geofencing;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+
+import com.google.android.gms.location.LocationResult;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Feeds the fused location stream into {@link RoadMatchFilter}.
+ */
+public class RoadMatchLocationReceiver extends BroadcastReceiver {
+
+    // The first fix loads the road graph from disk.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!LocationResult.hasResult(intent)) {
+            return;
+        }
+        final List<Location> locations = LocationResult.extractResult(intent).getLocations();
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RoadMatchFilter roadMatchFilter = RoadMatchFilter.getInstance(appContext);
+                    for (Location location : locations) {
+                        roadMatchFilter.onLocation(location);
+                    }
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+}
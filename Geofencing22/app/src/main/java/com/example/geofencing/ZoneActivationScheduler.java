@@ -0,0 +1,245 @@
+package com.example.geofencing;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import androidx.core.app.AlarmManagerCompat;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps only the scheduled zones that are active right now registered with the OS.
+ * <p>
+ * Every scheduled zone has one timeout in a {@link HashedTimerWheel} at its next window boundary.
+ * A single exact alarm is armed for the earliest of them; when it fires only the zones whose
+ * boundary passed are added or removed, and their next boundary goes back into the wheel.
+ * Nothing runs between boundaries. Zones without a schedule are left alone.
+ * <p>
+ * The OS watches at most 100 geofences per app, so the open zones are ranked by severity and only
+ * as many as the other registered geofences leave room for are added. A zone crowded out gets in
+ * at a later boundary once a slot frees up. Time and time zone changes trigger a full {@link #reload()}.
+ */
+public class ZoneActivationScheduler {
+
+    private static final String TAG = "ZoneActivationSchedule";
+
+    private static final long TICK_MILLIS = 60 * 1000;
+    private static final int WHEEL_SLOTS = 512;
+    private static final int ALARM_REQUEST_CODE = 2609;
+    // Let the OS drop a geofence on its own shortly after its window closes, in case we never wake up.
+    private static final long EXPIRATION_SLACK_MILLIS = 5 * 60 * 1000;
+    private static final int TRANSITION_TYPES = Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT;
+    // Per app limit of the OS, shared with the geofences registered outside the scheduler.
+    private static final int MAX_GEOFENCES = 100;
+    private static final long OS_TIMEOUT_SECONDS = 30;
+
+    private static final Comparator<ZoneRecord> MOST_SEVERE_FIRST = new Comparator<ZoneRecord>() {
+        @Override
+        public int compare(ZoneRecord a, ZoneRecord b) {
+            if (a.severity != b.severity) {
+                return b.severity - a.severity;
+            }
+            return a.id.compareTo(b.id);
+        }
+    };
+
+    private static ZoneActivationScheduler instance;
+
+    private final Context context;
+    private final GeofenceHelper geofenceHelper;
+    private final GeofencingClient geofencingClient;
+    private final GeofenceSnapshot geofenceSnapshot;
+
+    private final Map<String, ZoneRecord> zones = new HashMap<>();
+    private final Map<String, ZoneSchedule> schedules = new HashMap<>();
+    private HashedTimerWheel<String> wheel;
+
+    public static synchronized ZoneActivationScheduler getInstance(Context context) {
+        if (instance == null) {
+            instance = new ZoneActivationScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ZoneActivationScheduler(Context context) {
+        this.context = context;
+        this.geofenceHelper = new GeofenceHelper(context);
+        this.geofencingClient = LocationServices.getGeofencingClient(context);
+        this.geofenceSnapshot = GeofenceSnapshot.getInstance(context);
+    }
+
+    /**
+     * Re-reads all schedules, brings the registered geofences in line with the current windows and
+     * arms the next alarm. Hits the database and waits for the OS, call it off the main thread.
+     */
+    public synchronized void reload() {
+        long now = System.currentTimeMillis();
+        zones.clear();
+        schedules.clear();
+        wheel = new HashedTimerWheel<>(TICK_MILLIS, WHEEL_SLOTS, now);
+        for (ZoneRecord zone : ZoneDatabase.getInstance(context).getScheduledZones()) {
+            ZoneSchedule schedule;
+            try {
+                schedule = ZoneSchedule.parse(zone.schedule);
+            } catch (IllegalArgumentException e) {
+                Log.d(TAG, "reload: Ignoring schedule of " + zone.id + ": " + e.getLocalizedMessage());
+                continue;
+            }
+            if (schedule == null) {
+                continue;
+            }
+            zones.put(zone.id, zone);
+            schedules.put(zone.id, schedule);
+            wheel.add(zone.id, schedule.nextBoundary(now));
+        }
+        apply(zones.keySet(), now);
+        armAlarm();
+    }
+
+    /**
+     * Handles the boundary alarm: updates just the zones whose window opened or closed. Waits for
+     * the OS, call it off the main thread.
+     */
+    public synchronized void onAlarm() {
+        if (wheel == null) {
+            // Process was restarted since the alarm was armed.
+            reload();
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<String> due = new ArrayList<>();
+        wheel.advanceTo(now, new HashedTimerWheel.Handler<String>() {
+            @Override
+            public void onExpired(String id, long deadline) {
+                due.add(id);
+            }
+        });
+        for (String id : due) {
+            wheel.add(id, schedules.get(id).nextBoundary(now));
+        }
+        Log.d(TAG, "onAlarm: " + due.size() + " zones crossed a window boundary");
+        apply(new HashSet<>(due), now);
+        armAlarm();
+    }
+
+    /**
+     * Reloads only when a changed zone has, or had, a schedule.
+     */
+    public synchronized void onZonesChanged(Collection<String> ids, boolean anyScheduled) {
+        boolean touched = wheel == null || anyScheduled;
+        for (String id : ids) {
+            touched |= zones.containsKey(id);
+        }
+        if (touched) {
+            reload();
+        }
+    }
+
+    /**
+     * Registers the scheduled zones that are open at {@code now} and drops the ones that closed. When
+     * more are open than the OS geofence limit leaves room for, the most severe ones win. Zones in
+     * {@code changed} are registered again even if already watched, to pick up their new expiration.
+     * The snapshot is only updated once the OS has accepted the change.
+     */
+    private void apply(Collection<String> changed, long now) {
+        List<ZoneRecord> open = new ArrayList<>();
+        for (Map.Entry<String, ZoneSchedule> entry : schedules.entrySet()) {
+            if (entry.getValue().isActive(now)) {
+                open.add(zones.get(entry.getKey()));
+            }
+        }
+        Collections.sort(open, MOST_SEVERE_FIRST);
+
+        Set<String> registered = new HashSet<>();
+        int unmanaged = 0;
+        for (GeofenceSnapshot.Entry entry : geofenceSnapshot.getEntries()) {
+            if (zones.containsKey(entry.id)) {
+                registered.add(entry.id);
+            } else {
+                unmanaged++;
+            }
+        }
+        int budget = Math.min(open.size(), Math.max(0, MAX_GEOFENCES - unmanaged));
+        if (budget < open.size()) {
+            Log.d(TAG, "apply: " + (open.size() - budget) + " open zones left out over the geofence limit");
+        }
+
+        Set<String> wanted = new HashSet<>();
+        List<Geofence> activate = new ArrayList<>();
+        List<GeofenceSnapshot.Entry> activated = new ArrayList<>();
+        for (ZoneRecord zone : open.subList(0, budget)) {
+            wanted.add(zone.id);
+            if (registered.contains(zone.id) && !changed.contains(zone.id)) {
+                continue;
+            }
+            long expiration = schedules.get(zone.id).activeUntil(now) - now + EXPIRATION_SLACK_MILLIS;
+            activate.add(geofenceHelper.getGeofence(zone.id, new LatLng(zone.latitude, zone.longitude), zone.radius, TRANSITION_TYPES, expiration));
+            activated.add(new GeofenceSnapshot.Entry(zone.id, zone.latitude, zone.longitude, zone.radius, TRANSITION_TYPES, now + expiration));
+        }
+        List<String> deactivate = new ArrayList<>();
+        for (String id : registered) {
+            if (!wanted.contains(id)) {
+                deactivate.add(id);
+            }
+        }
+
+        try {
+            // Removing first frees slots for the zones being added.
+            if (!deactivate.isEmpty() && await(geofencingClient.removeGeofences(deactivate))) {
+                geofenceSnapshot.removeAll(deactivate);
+            }
+            if (!activate.isEmpty() && await(geofencingClient.addGeofences(geofenceHelper.getGeofencingRequest(activate), geofenceHelper.getPendingIntent()))) {
+                geofenceSnapshot.putAll(activated);
+            }
+        } catch (SecurityException e) {
+            Log.d(TAG, "apply: " + e.getLocalizedMessage());
+        }
+    }
+
+    private boolean await(Task<Void> task) {
+        try {
+            Tasks.await(task, OS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            Log.d(TAG, "apply: " + (e.getCause() instanceof Exception ? geofenceHelper.getErrorString((Exception) e.getCause()) : e.getLocalizedMessage()));
+        } catch (TimeoutException e) {
+            Log.d(TAG, "apply: " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void armAlarm() {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE,
+                new Intent(context, ZoneScheduleReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        long next = wheel.nextDeadline();
+        if (next == Long.MAX_VALUE) {
+            alarmManager.cancel(pendingIntent);
+            return;
+        }
+        AlarmManagerCompat.setExactAndAllowWhileIdle(alarmManager, AlarmManager.RTC_WAKEUP, next, pendingIntent);
+    }
+}
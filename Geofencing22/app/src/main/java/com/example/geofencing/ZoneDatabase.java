@@ -0,0 +1,245 @@
+package com.example.geofencing;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local store of accident prone zones, keyed by the geofence request id.
+ * Every call goes to SQLite, keep them off the main thread.
+ */
+public class ZoneDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "zones.db";
+    private static final int DATABASE_VERSION = 2;
+
+    static final String TABLE_ZONES = "zones";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_LATITUDE = "latitude";
+    static final String COLUMN_LONGITUDE = "longitude";
+    static final String COLUMN_RADIUS = "radius";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_MESSAGE = "message";
+    static final String COLUMN_SEVERITY = "severity";
+    static final String COLUMN_SCHEDULE = "schedule";
+
+    private static final String[] ZONE_COLUMNS = {
+            COLUMN_ID, COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_RADIUS, COLUMN_TITLE, COLUMN_MESSAGE, COLUMN_SEVERITY, COLUMN_SCHEDULE
+    };
+
+    // SQLite's default limit on bound parameters is 999.
+    private static final int MAX_BATCH_ARGS = 900;
+
+    private static ZoneDatabase instance;
+
+    public static synchronized ZoneDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new ZoneDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ZoneDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ZONES + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_LONGITUDE + " REAL NOT NULL, "
+                + COLUMN_RADIUS + " REAL NOT NULL, "
+                + COLUMN_TITLE + " TEXT, "
+                + COLUMN_MESSAGE + " TEXT, "
+                + COLUMN_SEVERITY + " INTEGER NOT NULL DEFAULT " + ZoneRecord.SEVERITY_LOW + ", "
+                + COLUMN_SCHEDULE + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_ZONES + " ADD COLUMN " + COLUMN_SCHEDULE + " TEXT");
+        }
+    }
+
+    public void putZone(ZoneRecord zone) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, zone.id);
+        values.put(COLUMN_LATITUDE, zone.latitude);
+        values.put(COLUMN_LONGITUDE, zone.longitude);
+        values.put(COLUMN_RADIUS, zone.radius);
+        values.put(COLUMN_TITLE, zone.title);
+        values.put(COLUMN_MESSAGE, zone.message);
+        values.put(COLUMN_SEVERITY, zone.severity);
+        values.put(COLUMN_SCHEDULE, zone.schedule);
+        getWritableDatabase().insertWithOnConflict(TABLE_ZONES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Applies a batch of synced changes in one transaction, row by row, so the cost follows the size
+     * of the change and not of the table.
+     *
+     * @return ids of the zones that were removed
+     */
+    public List<String> applyChanges(List<ZoneRecord> puts, Collection<String> deletes) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<String> removed = new ArrayList<>(deletes);
+        db.beginTransaction();
+        try {
+            deleteZones(db, removed);
+
+            SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_ZONES
+                    + " (" + COLUMN_ID + ", " + COLUMN_LATITUDE + ", " + COLUMN_LONGITUDE + ", " + COLUMN_RADIUS + ", "
+                    + COLUMN_TITLE + ", " + COLUMN_MESSAGE + ", " + COLUMN_SEVERITY + ", " + COLUMN_SCHEDULE
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            for (ZoneRecord zone : puts) {
+                insert.clearBindings();
+                insert.bindString(1, zone.id);
+                insert.bindDouble(2, zone.latitude);
+                insert.bindDouble(3, zone.longitude);
+                insert.bindDouble(4, zone.radius);
+                if (zone.title != null) {
+                    insert.bindString(5, zone.title);
+                }
+                if (zone.message != null) {
+                    insert.bindString(6, zone.message);
+                }
+                insert.bindLong(7, zone.severity);
+                if (zone.schedule != null) {
+                    insert.bindString(8, zone.schedule);
+                }
+                insert.executeInsert();
+            }
+            insert.close();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    /**
+     * Drops every zone not in {@code kept}, which ends a reset that was applied page by page.
+     *
+     * @return ids of the zones that were removed
+     */
+    public List<String> retainOnly(Set<String> kept) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<String> removed = new ArrayList<>();
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(TABLE_ZONES, new String[]{COLUMN_ID}, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (!kept.contains(cursor.getString(0))) {
+                        removed.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            deleteZones(db, removed);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return removed;
+    }
+
+    private static void deleteZones(SQLiteDatabase db, Collection<String> ids) {
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE_ZONES + " WHERE " + COLUMN_ID + " = ?");
+        for (String id : ids) {
+            delete.bindString(1, id);
+            delete.executeUpdateDelete();
+        }
+        delete.close();
+    }
+
+    /**
+     * Looks up all the given zones with one query per {@link #MAX_BATCH_ARGS} ids.
+     * Ids with no stored zone are left out of the result.
+     */
+    public Map<String, ZoneRecord> getZones(Collection<String> ids) {
+        Map<String, ZoneRecord> zones = new HashMap<>();
+        if (ids.isEmpty()) {
+            return zones;
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        String[] all = ids.toArray(new String[0]);
+        for (int start = 0; start < all.length; start += MAX_BATCH_ARGS) {
+            int size = Math.min(MAX_BATCH_ARGS, all.length - start);
+            String[] args = new String[size];
+            System.arraycopy(all, start, args, 0, size);
+            Cursor cursor = db.query(TABLE_ZONES, ZONE_COLUMNS, COLUMN_ID + " IN (" + placeholders(size) + ")", args, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ZoneRecord zone = readZone(cursor);
+                    zones.put(zone.id, zone);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return zones;
+    }
+
+    public List<ZoneRecord> getAllZones() {
+        List<ZoneRecord> zones = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_ZONES, ZONE_COLUMNS, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                zones.add(readZone(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return zones;
+    }
+
+    public List<ZoneRecord> getScheduledZones() {
+        List<ZoneRecord> zones = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE_ZONES, ZONE_COLUMNS, COLUMN_SCHEDULE + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                zones.add(readZone(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return zones;
+    }
+
+    static ZoneRecord readZone(Cursor cursor) {
+        return new ZoneRecord(
+                cursor.getString(0),
+                cursor.getDouble(1),
+                cursor.getDouble(2),
+                cursor.getFloat(3),
+                cursor.getString(4),
+                cursor.getString(5),
+                cursor.getInt(6),
+                cursor.getString(7));
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.geofencing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Pulls zone changes from the backend's {@code /zonechanges} endpoint since the last synced version
+ * and applies them to {@link ZoneDatabase} in place.
+ * <p>
+ * Only the puts and deletes since that version travel and get written, so a single edit costs a
+ * single row. Zones the OS is watching are re-registered or removed as needed, and scheduled zones
+ * are handed back to {@link ZoneActivationScheduler}. The version is stored after each page has
+ * been committed; replaying a page after a crash is harmless.
+ * <p>
+ * A reset, for a new device or one that fell behind the backend's retained changes, comes in pages
+ * ordered by geofence key. Its zones are upserted page by page and the ones it did not bring back
+ * are dropped after the last page. Only then is its version stored, so an interrupted reset starts
+ * over on the next sync.
+ */
+public class ZoneDeltaSync {
+
+    private static final String TAG = "ZoneDeltaSync";
+
+    private static final String PREFS = "zone_sync";
+    private static final String KEY_VERSION = "version";
+    private static final int PAGE_SIZE = 1000;
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+    private static final long OS_TIMEOUT_SECONDS = 30;
+
+    private final Context context;
+    private final String url;
+    private final SharedPreferences preferences;
+
+    public ZoneDeltaSync(Context context, String url) {
+        this.context = context.getApplicationContext();
+        this.url = url;
+        this.preferences = this.context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Syncs up to the backend's current version. Does network and disk work, call it off the main thread.
+     *
+     * @return the number of changes applied
+     */
+    public int sync() throws IOException {
+        int applied = 0;
+        // Set while a reset is being paged in, with the version it brings the device to.
+        Set<String> resetIds = null;
+        long resetVersion = 0;
+        String cursor = null;
+        boolean more = true;
+        while (more) {
+            String query = resetIds == null
+                    ? "?since=" + preferences.getLong(KEY_VERSION, 0) + "&limit=" + PAGE_SIZE
+                    : "?since=0&limit=" + PAGE_SIZE + "&after=" + URLEncoder.encode(cursor, "UTF-8");
+            JSONObject page = fetch(new URL(url + query));
+            try {
+                more = page.optBoolean("more", false);
+                if (page.optBoolean("reset", false)) {
+                    if (resetIds == null) {
+                        resetIds = new HashSet<>();
+                        resetVersion = page.getLong("version");
+                    }
+                    applied += apply(page, resetIds);
+                    cursor = string(page, "cursor", null);
+                    if (more && cursor == null) {
+                        throw new IOException("Bad zone changes: reset page without a cursor");
+                    }
+                    if (!more) {
+                        applied += finishReset(resetIds);
+                        preferences.edit().putLong(KEY_VERSION, resetVersion).commit();
+                    }
+                } else {
+                    applied += apply(page, null);
+                    preferences.edit().putLong(KEY_VERSION, page.getLong("version")).commit();
+                }
+            } catch (JSONException e) {
+                throw new IOException("Bad zone changes: " + e.getMessage(), e);
+            }
+        }
+        Log.d(TAG, "sync: Applied " + applied + " zone changes, now at " + preferences.getLong(KEY_VERSION, 0));
+        return applied;
+    }
+
+    /**
+     * Applies one page. During a reset the ids of its zones are added to {@code resetIds}.
+     */
+    private int apply(JSONObject page, Set<String> resetIds) throws JSONException {
+        JSONArray changes = page.getJSONArray("changes");
+        List<ZoneRecord> puts = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        boolean anyScheduled = false;
+        for (int i = 0; i < changes.length(); i++) {
+            JSONObject change = changes.getJSONObject(i);
+            String id = change.getString("geofence_id");
+            if ("delete".equals(change.getString("op"))) {
+                deletes.add(id);
+                continue;
+            }
+            String schedule = string(change, "schedule", null);
+            anyScheduled |= schedule != null;
+            puts.add(new ZoneRecord(id,
+                    change.getDouble("lat"),
+                    change.getDouble("lng"),
+                    (float) change.getDouble("radius"),
+                    string(change, "gtitle", "Accident prone zone"),
+                    string(change, "gmessage", "Accident prone zone, drive with care"),
+                    change.optInt("severity", ZoneRecord.SEVERITY_HIGH),
+                    schedule));
+            if (resetIds != null) {
+                resetIds.add(id);
+            }
+        }
+        if (puts.isEmpty() && deletes.isEmpty()) {
+            return 0;
+        }
+
+        List<String> removed = ZoneDatabase.getInstance(context).applyChanges(puts, deletes);
+        updateRegistered(puts, removed);
+
+        List<String> changed = new ArrayList<>(removed);
+        for (ZoneRecord zone : puts) {
+            changed.add(zone.id);
+        }
+        ZoneActivationScheduler.getInstance(context).onZonesChanged(changed, anyScheduled);
+        return puts.size() + removed.size();
+    }
+
+    /**
+     * Drops the zones the last page of a reset did not bring back.
+     */
+    private int finishReset(Set<String> resetIds) {
+        List<String> removed = ZoneDatabase.getInstance(context).retainOnly(resetIds);
+        if (removed.isEmpty()) {
+            return 0;
+        }
+        updateRegistered(new ArrayList<ZoneRecord>(), removed);
+        ZoneActivationScheduler.getInstance(context).onZonesChanged(removed, false);
+        return removed.size();
+    }
+
+    // JSONObject.optString turns a JSON null into the string "null".
+    private static String string(JSONObject object, String name, String fallback) {
+        return object.isNull(name) ? fallback : object.optString(name, fallback);
+    }
+
+    /**
+     * Brings geofences the OS is already watching in line with the new data. Scheduled zones are
+     * left to the scheduler, which registers them with an expiration.
+     */
+    private void updateRegistered(List<ZoneRecord> puts, List<String> removed) {
+        GeofenceSnapshot snapshot = GeofenceSnapshot.getInstance(context);
+        Map<String, GeofenceSnapshot.Entry> registered = new HashMap<>();
+        for (GeofenceSnapshot.Entry entry : snapshot.getEntries()) {
+            registered.put(entry.id, entry);
+        }
+        if (registered.isEmpty()) {
+            return;
+        }
+
+        List<String> unregister = new ArrayList<>();
+        for (String id : removed) {
+            if (registered.containsKey(id)) {
+                unregister.add(id);
+            }
+        }
+        GeofenceHelper geofenceHelper = new GeofenceHelper(context);
+        List<Geofence> reregister = new ArrayList<>();
+        List<GeofenceSnapshot.Entry> entries = new ArrayList<>();
+        for (ZoneRecord zone : puts) {
+            GeofenceSnapshot.Entry entry = registered.get(zone.id);
+            if (entry == null || zone.schedule != null) {
+                continue;
+            }
+            if (entry.latitude == zone.latitude && entry.longitude == zone.longitude && entry.radius == zone.radius) {
+                continue;
+            }
+            reregister.add(geofenceHelper.getGeofence(zone.id, new LatLng(zone.latitude, zone.longitude), zone.radius, entry.transitionTypes));
+            entries.add(new GeofenceSnapshot.Entry(zone.id, zone.latitude, zone.longitude, zone.radius, entry.transitionTypes));
+        }
+
+        GeofencingClient geofencingClient = LocationServices.getGeofencingClient(context);
+        try {
+            if (!unregister.isEmpty() && await(geofencingClient.removeGeofences(unregister))) {
+                snapshot.removeAll(unregister);
+            }
+            if (!reregister.isEmpty() && await(geofencingClient.addGeofences(geofenceHelper.getGeofencingRequest(reregister), geofenceHelper.getPendingIntent()))) {
+                snapshot.putAll(entries);
+            }
+        } catch (SecurityException e) {
+            Log.d(TAG, "updateRegistered: " + e.getLocalizedMessage());
+        }
+    }
+
+    // The snapshot must only follow what the OS actually accepted.
+    private static boolean await(Task<Void> task) {
+        try {
+            Tasks.await(task, OS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            Log.d(TAG, "updateRegistered: " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static JSONObject fetch(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Zone sync failed with HTTP " + status);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new JSONObject(out.toString("UTF-8"));
+            } finally {
+                in.close();
+            }
+        } catch (JSONException e) {
+            throw new IOException("Bad zone changes: " + e.getMessage(), e);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
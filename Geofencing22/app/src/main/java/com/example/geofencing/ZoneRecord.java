@@ -0,0 +1,40 @@
+package com.example.geofencing;
+
+public class ZoneRecord {
+
+    public static final int SEVERITY_LOW = 1;
+    public static final int SEVERITY_MEDIUM = 2;
+    public static final int SEVERITY_HIGH = 3;
+
+    public final String id;
+    public final double latitude;
+    public final double longitude;
+    public final float radius;
+    public final String title;
+    public final String message;
+    public final int severity;
+    // Weekly activity windows in ZoneSchedule form, null when always active.
+    public final String schedule;
+
+    public ZoneRecord(String id, double latitude, double longitude, float radius, String title, String message, int severity) {
+        this(id, latitude, longitude, radius, title, message, severity, null);
+    }
+
+    public ZoneRecord(String id, double latitude, double longitude, float radius, String title, String message, int severity, String schedule) {
+        this.id = id;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.title = title;
+        this.message = message;
+        this.severity = severity;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Stand-in for a triggering geofence that has no row in {@link ZoneDatabase}.
+     */
+    public static ZoneRecord unknown(String id) {
+        return new ZoneRecord(id, 0, 0, 0, "Accident prone zone", "Accident prone zone, drive with care", SEVERITY_LOW);
+    }
+}
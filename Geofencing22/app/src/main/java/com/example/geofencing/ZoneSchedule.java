@@ -0,0 +1,160 @@
+package com.example.geofencing;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Weekly activity windows of a zone.
+ * <p>
+ * Written as {@code <days>:<HHmm>-<HHmm>} windows separated by {@code ;}, where days is a bit mask
+ * of {@link Calendar#DAY_OF_WEEK} (Sunday = 1, Monday = 2 ... Saturday = 64). A window whose end is
+ * not after its start runs past midnight. For example {@code 62:0800-0900} is weekday mornings and
+ * {@code 65:0600-2200} is weekends. A zone without a schedule is always active; a spec that names
+ * no day, or no window at all, is rejected rather than read as always active.
+ * <p>
+ * Times are wall clock times in the device time zone, so on daylight saving change days a window
+ * still opens at its local time. A time the clock skips opens at the first minute after the jump.
+ */
+public class ZoneSchedule {
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    // [start, end) in minute of week, end may exceed MINUTES_PER_WEEK for windows that wrap.
+    private final int[] starts;
+    private final int[] ends;
+
+    private ZoneSchedule(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * @return the schedule, or null for an empty or missing spec
+     * @throws IllegalArgumentException for a malformed spec, or one that is never active
+     */
+    public static ZoneSchedule parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+        List<int[]> windows = new ArrayList<>();
+        for (String window : spec.split(";")) {
+            window = window.trim();
+            if (window.isEmpty()) {
+                continue;
+            }
+            int colon = window.indexOf(':');
+            int dash = window.indexOf('-', colon);
+            if (colon < 0 || dash < 0) {
+                throw new IllegalArgumentException("Bad schedule window: " + window);
+            }
+            int days = Integer.parseInt(window.substring(0, colon).trim());
+            if (days < 1 || days > 127) {
+                throw new IllegalArgumentException("Bad schedule days: " + window);
+            }
+            int start = minuteOfDay(window.substring(colon + 1, dash));
+            int end = minuteOfDay(window.substring(dash + 1));
+            int length = end > start ? end - start : end + MINUTES_PER_DAY - start;
+            for (int day = 0; day < 7; day++) {
+                if ((days & (1 << day)) != 0) {
+                    int weekStart = day * MINUTES_PER_DAY + start;
+                    windows.add(new int[]{weekStart, weekStart + length});
+                }
+            }
+        }
+        if (windows.isEmpty()) {
+            throw new IllegalArgumentException("Schedule has no windows: " + spec);
+        }
+        int[] starts = new int[windows.size()];
+        int[] ends = new int[windows.size()];
+        for (int i = 0; i < windows.size(); i++) {
+            starts[i] = windows.get(i)[0];
+            ends[i] = windows.get(i)[1];
+        }
+        return new ZoneSchedule(starts, ends);
+    }
+
+    public boolean isActive(long timeMillis) {
+        return isActiveAt(minuteOfWeek(timeMillis));
+    }
+
+    /**
+     * First minute boundary after {@code timeMillis} at which a window opens or closes.
+     */
+    public long nextBoundary(long timeMillis) {
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(timeMillis);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        Calendar candidate = Calendar.getInstance();
+        long best = Long.MAX_VALUE;
+        // Days are walked as calendar days, not 24 hour steps. Today's boundaries may all be past,
+        // so a week and a day covers every window.
+        for (int offset = 0; offset <= 7 && best == Long.MAX_VALUE; offset++) {
+            int dayOfWeek = day.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY;
+            for (int i = 0; i < starts.length; i++) {
+                best = Math.min(best, boundaryOn(day, candidate, dayOfWeek, starts[i], timeMillis));
+                best = Math.min(best, boundaryOn(day, candidate, dayOfWeek, ends[i], timeMillis));
+            }
+            day.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return best;
+    }
+
+    /**
+     * End of the window that is open at {@code timeMillis}, or of the next one to open.
+     */
+    public long activeUntil(long timeMillis) {
+        long boundary = nextBoundary(timeMillis);
+        while (isActive(boundary) && boundary - timeMillis < MINUTES_PER_WEEK * 60000L) {
+            boundary = nextBoundary(boundary);
+        }
+        return boundary;
+    }
+
+    private boolean isActiveAt(int minuteOfWeek) {
+        for (int i = 0; i < starts.length; i++) {
+            if ((minuteOfWeek >= starts[i] && minuteOfWeek < ends[i])
+                    || (minuteOfWeek + MINUTES_PER_WEEK >= starts[i] && minuteOfWeek + MINUTES_PER_WEEK < ends[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Time of the boundary on the given day, or Long.MAX_VALUE if it is not on that day or not after 'after'.
+    private static long boundaryOn(Calendar day, Calendar candidate, int dayOfWeek, int minuteOfWeek, long after) {
+        int minute = minuteOfWeek % MINUTES_PER_WEEK;
+        if (minute / MINUTES_PER_DAY != dayOfWeek) {
+            return Long.MAX_VALUE;
+        }
+        candidate.setTimeInMillis(day.getTimeInMillis());
+        candidate.set(Calendar.HOUR_OF_DAY, minute % MINUTES_PER_DAY / 60);
+        candidate.set(Calendar.MINUTE, minute % 60);
+        long time = candidate.getTimeInMillis();
+        return time > after ? time : Long.MAX_VALUE;
+    }
+
+    private static int minuteOfWeek(long timeMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
+        return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * MINUTES_PER_DAY
+                + calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+    }
+
+    private static int minuteOfDay(String hhmm) {
+        hhmm = hhmm.trim();
+        if (hhmm.length() != 4) {
+            throw new IllegalArgumentException("Bad time: " + hhmm);
+        }
+        int hours = Integer.parseInt(hhmm.substring(0, 2));
+        int minutes = Integer.parseInt(hhmm.substring(2));
+        if (hours > 24 || minutes > 59 || (hours == 24 && minutes > 0)) {
+            throw new IllegalArgumentException("Bad time: " + hhmm);
+        }
+        return hours * 60 + minutes;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.geofencing;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fires at zone window boundaries. A clock or time zone change moves every boundary, so those
+ * reload all schedules instead.
+ */
+public class ZoneScheduleReceiver extends BroadcastReceiver {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context appContext = context.getApplicationContext();
+        final boolean clockChanged = Intent.ACTION_TIME_CHANGED.equals(intent.getAction())
+                || Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction());
+        final PendingResult pendingResult = goAsync();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (clockChanged) {
+                        ZoneActivationScheduler.getInstance(appContext).reload();
+                    } else {
+                        ZoneActivationScheduler.getInstance(appContext).onAlarm();
+                    }
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.geofencing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimerWheelTest {
+
+    private static final long TICK = 1000;
+
+    private static List<String> advance(HashedTimerWheel<String> wheel, long now) {
+        final List<String> fired = new ArrayList<>();
+        wheel.advanceTo(now, new HashedTimerWheel.Handler<String>() {
+            @Override
+            public void onExpired(String item, long deadline) {
+                fired.add(item);
+            }
+        });
+        return fired;
+    }
+
+    @Test
+    public void firesOnlyWhatIsDue() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        wheel.add("late", 5000);
+        wheel.add("early", 1000);
+        assertEquals(1000, wheel.nextDeadline());
+
+        assertEquals(Arrays.asList("early"), advance(wheel, 2500));
+        assertEquals(1, wheel.size());
+        assertEquals(5000, wheel.nextDeadline());
+        assertEquals(new ArrayList<String>(), advance(wheel, 4999));
+        assertEquals(Arrays.asList("late"), advance(wheel, 5000));
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+    }
+
+    @Test
+    public void deadlinesBeyondOneRevolutionWaitTheirRounds() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        // Same slot as tick 4, two revolutions later.
+        wheel.add("far", 20000);
+        wheel.add("near", 4000);
+        assertEquals(Arrays.asList("near"), advance(wheel, 4000));
+        assertEquals(new ArrayList<String>(), advance(wheel, 12000));
+        assertEquals(new ArrayList<String>(), advance(wheel, 19999));
+        assertEquals(Arrays.asList("far"), advance(wheel, 20000));
+    }
+
+    @Test
+    public void jumpingFarAheadFiresEverythingOverdue() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        wheel.add("a", 3000);
+        wheel.add("b", 30000);
+        List<String> fired = advance(wheel, 100000);
+        assertEquals(2, fired.size());
+        assertTrue(fired.containsAll(Arrays.asList("a", "b")));
+        // A past deadline goes in the next tick that has not been processed.
+        wheel.add("c", 50000);
+        assertEquals(101000, wheel.nextDeadline());
+        assertEquals(Arrays.asList("c"), advance(wheel, wheel.nextDeadline()));
+    }
+
+    @Test
+    public void nextDeadlineIsWhenItActuallyFires() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        wheel.add("a", 61500);
+        assertEquals(62000, wheel.nextDeadline());
+        assertEquals(new ArrayList<String>(), advance(wheel, 61500));
+        assertEquals(Arrays.asList("a"), advance(wheel, wheel.nextDeadline()));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotFire() {
+        HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        HashedTimerWheel.Timeout<String> a = wheel.add("a", 2000);
+        wheel.add("b", 2000);
+        wheel.cancel(a);
+        wheel.cancel(a);
+        assertEquals(1, wheel.size());
+        assertEquals(Arrays.asList("b"), advance(wheel, 3000));
+    }
+
+    @Test
+    public void handlersMayRescheduleWhileAdvancing() {
+        final HashedTimerWheel<String> wheel = new HashedTimerWheel<>(TICK, 8, 0);
+        wheel.add("boundary", 1000);
+        final List<Long> deadlines = new ArrayList<>();
+        wheel.advanceTo(1000, new HashedTimerWheel.Handler<String>() {
+            @Override
+            public void onExpired(String item, long deadline) {
+                deadlines.add(deadline);
+                wheel.add(item, deadline + 60000);
+            }
+        });
+        assertEquals(Arrays.asList(1000L), deadlines);
+        assertEquals(61000, wheel.nextDeadline());
+        assertEquals(Arrays.asList("boundary"), advance(wheel, 61000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slotCountMustBeAPowerOfTwo() {
+        new HashedTimerWheel<String>(TICK, 6, 0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.geofencing;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MapMatcherTest {
+
+    private static final double ORIGIN_LAT = 12.9700;
+    private static final double ORIGIN_LON = 80.1900;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    private static double lat(double y) {
+        return ORIGIN_LAT + y / METERS_PER_DEGREE;
+    }
+
+    private static double lon(double x) {
+        return ORIGIN_LON + x / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LAT)));
+    }
+
+    /**
+     * Two one-way carriageways 10 m apart, 2 km long: northbound at x = 0, southbound at x = 10,
+     * joined only at the ends. Edges 0..39 are northbound, 40..79 southbound.
+     */
+    private static RoadGraph dualCarriageway() throws IOException {
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        int segments = 40;
+        int[] north = new int[segments + 1];
+        int[] south = new int[segments + 1];
+        for (int i = 0; i <= segments; i++) {
+            north[i] = builder.addNode(lat(i * 50), lon(0));
+            south[i] = builder.addNode(lat(i * 50), lon(10));
+        }
+        for (int i = 0; i < segments; i++) {
+            builder.addEdge(north[i], north[i + 1], true);
+        }
+        for (int i = segments; i > 0; i--) {
+            builder.addEdge(south[i], south[i - 1], true);
+        }
+        builder.addEdge(north[segments], south[segments], true);
+        builder.addEdge(south[0], north[0], true);
+        builder.tagZone("northbound-only", 20, true, false);
+        return RoadGraphTest.roundTrip(builder);
+    }
+
+    private static boolean nearerToSouthbound(double x) {
+        return Math.abs(x) > Math.abs(x - 10);
+    }
+
+    @Test
+    public void holdsTheCarriagewayThroughNoiseWhereNearestEdgeFlips() throws IOException {
+        RoadGraph graph = dualCarriageway();
+        MapMatcher matcher = new MapMatcher(graph);
+        Random random = new Random(42);
+
+        int nearestWrong = 0;
+        int matcherWrong = 0;
+        for (int i = 0; i < 120; i++) {
+            double y = 20 + i * 15;
+            double x = random.nextGaussian() * 5;
+            if (nearerToSouthbound(x)) {
+                nearestWrong++;
+            }
+            // No bearing: only the route between fixes can tell the carriageways apart.
+            assertTrue(matcher.update(lat(y + random.nextGaussian() * 3), lon(x), Float.NaN, 1000L * i));
+            if (i > 0 && matcher.getMatchedEdge() >= 40) {
+                matcherWrong++;
+            }
+        }
+        assertTrue("noise should put some fixes nearer the other carriageway", nearestWrong > 5);
+        assertEquals(0, matcherWrong);
+        assertEquals(RoadGraph.DIRECTION_FORWARD, matcher.getMatchedDirection());
+    }
+
+    @Test
+    public void bearingPicksTheCarriagewayOnTheFirstFix() throws IOException {
+        RoadGraph graph = dualCarriageway();
+        MapMatcher matcher = new MapMatcher(graph);
+        assertTrue(matcher.update(lat(500), lon(5), 180f, 0));
+        assertTrue(matcher.getMatchedEdge() >= 40);
+        assertFalse(graph.zoneAppliesTo("northbound-only", matcher.getMatchedEdge(), matcher.getMatchedDirection()));
+
+        matcher.reset();
+        assertTrue(matcher.update(lat(1010), lon(5), 0f, 0));
+        assertEquals(20, matcher.getMatchedEdge());
+        assertTrue(graph.zoneAppliesTo("northbound-only", matcher.getMatchedEdge(), matcher.getMatchedDirection()));
+    }
+
+    @Test
+    public void fixAwayFromRoadsIsUnmatched() throws IOException {
+        MapMatcher matcher = new MapMatcher(dualCarriageway());
+        assertTrue(matcher.update(lat(100), lon(0), Float.NaN, 0));
+        assertFalse(matcher.update(lat(100), lon(500), Float.NaN, 1000));
+        assertEquals(-1, matcher.getMatchedEdge());
+        assertEquals(0f, matcher.getMatchedConfidence(), 0f);
+    }
+
+    @Test
+    public void perFixCostStaysSmallOnACityGrid() throws IOException {
+        // 100 x 100 two-way street grid, 100 m blocks.
+        int size = 100;
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                builder.addNode(lat(r * 100), lon(c * 100));
+            }
+        }
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                if (c + 1 < size) {
+                    builder.addEdge(r * size + c, r * size + c + 1, false);
+                }
+                if (r + 1 < size) {
+                    builder.addEdge(r * size + c, (r + 1) * size + c, false);
+                }
+            }
+        }
+        MapMatcher matcher = new MapMatcher(RoadGraphTest.roundTrip(builder));
+        Random random = new Random(7);
+
+        int fixes = 20000;
+        double[] lats = new double[fixes];
+        double[] lons = new double[fixes];
+        for (int i = 0; i < fixes; i++) {
+            // Zig-zag east along row 50 with GPS noise, wrapping before the edge of the grid.
+            double x = 50 + (i * 12) % 9000;
+            lats[i] = lat(5000 + random.nextGaussian() * 5);
+            lons[i] = lon(x + random.nextGaussian() * 5);
+        }
+        for (int i = 0; i < 2000; i++) {
+            matcher.update(lats[i], lons[i], Float.NaN, 1000L * i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < fixes; i++) {
+            matcher.update(lats[i], lons[i], Float.NaN, 1000L * (i + 2000));
+        }
+        long perFix = (System.nanoTime() - start) / fixes;
+        // Loose bound so it holds on slow CI machines, the point is bounded work per fix.
+        assertTrue("took " + perFix + " ns per fix", perFix < 1000000);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.geofencing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoadGraphTest {
+
+    static RoadGraph roundTrip(RoadGraphBuilder builder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.write(out);
+        return RoadGraph.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void writtenGraphReadsBack() throws IOException {
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        int a = builder.addNode(12.9770, 80.1930);
+        int b = builder.addNode(12.9780, 80.1930);
+        int c = builder.addNode(12.9780, 80.1940);
+        int ab = builder.addEdge(a, b, false);
+        int bc = builder.addEdge(b, c, true);
+        builder.tagZone("flyover", bc, true, false);
+
+        RoadGraph graph = roundTrip(builder);
+        assertEquals(3, graph.nodeCount);
+        assertEquals(2, graph.edgeCount);
+        assertFalse(graph.isOneway(ab));
+        assertTrue(graph.isOneway(bc));
+        // 0.001 degree of latitude is about 111 m.
+        assertEquals(111.3f, graph.edgeLength[ab], 0.5f);
+        assertEquals(graph.projectY(12.9780), graph.nodeY[b], 0.01f);
+
+        // b is shared by both edges.
+        assertEquals(2, graph.nodeEdgeStart[b + 1] - graph.nodeEdgeStart[b]);
+        assertEquals(1, graph.nodeEdgeStart[a + 1] - graph.nodeEdgeStart[a]);
+
+        assertTrue(graph.isZoneTagged("flyover"));
+        assertTrue(graph.zoneAppliesTo("flyover", bc, RoadGraph.DIRECTION_FORWARD));
+        assertFalse(graph.zoneAppliesTo("flyover", bc, RoadGraph.DIRECTION_BACKWARD));
+        assertFalse(graph.zoneAppliesTo("flyover", ab, RoadGraph.DIRECTION_FORWARD));
+        assertFalse(graph.isZoneTagged("anywhere"));
+        assertTrue(graph.zoneAppliesTo("anywhere", ab, RoadGraph.DIRECTION_BACKWARD));
+    }
+
+    @Test
+    public void everyEdgeIsInTheGridCellsItCrosses() throws IOException {
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        int a = builder.addNode(12.9700, 80.1900);
+        int b = builder.addNode(12.9750, 80.1950);
+        int edge = builder.addEdge(a, b, false);
+        RoadGraph graph = roundTrip(builder);
+
+        float x = (graph.nodeX[a] + graph.nodeX[b]) / 2;
+        float y = (graph.nodeY[a] + graph.nodeY[b]) / 2;
+        int cell = graph.cell(graph.row(y), graph.column(x));
+        assertTrue(cell >= 0);
+        boolean found = false;
+        for (int i = graph.cellStart[cell]; i < graph.cellStart[cell + 1]; i++) {
+            found |= graph.cellEdges[i] == edge;
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void gridStoresOnlyCellsWithRoads() throws IOException {
+        // Two short roads over 1000 km apart: a dense 100 m grid over their box would be 10^8 cells.
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        builder.addEdge(builder.addNode(8.0000, 77.0000), builder.addNode(8.0010, 77.0000), false);
+        builder.addEdge(builder.addNode(17.0000, 87.0000), builder.addNode(17.0000, 87.0010), false);
+        RoadGraph graph = roundTrip(builder);
+
+        assertTrue((long) graph.gridColumns * graph.gridRows > 1000000L);
+        assertTrue(graph.cellKeys.length <= 6);
+        assertEquals(-1, graph.cell(graph.gridRows / 2, graph.gridColumns / 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        RoadGraph.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test
+    public void importsDrivableOsmWays() throws IOException {
+        String osm = "<?xml version='1.0' encoding='UTF-8'?>\n"
+                + "<osm version='0.6'>\n"
+                + "  <node id='1' lat='12.9770' lon='80.1930'/>\n"
+                + "  <node id='2' lat='12.9780' lon='80.1930'/>\n"
+                + "  <node id='3' lat='12.9790' lon='80.1930'/>\n"
+                + "  <node id='4' lat='12.9790' lon='80.1940'/>\n"
+                + "  <way id='10'><nd ref='1'/><nd ref='2'/><nd ref='3'/><tag k='highway' v='primary'/></way>\n"
+                + "  <way id='11'><nd ref='3'/><nd ref='4'/><tag k='highway' v='secondary'/><tag k='oneway' v='-1'/></way>\n"
+                + "  <way id='12'><nd ref='1'/><nd ref='4'/><tag k='highway' v='footway'/></way>\n"
+                + "  <way id='13'><nd ref='4'/><nd ref='99'/><tag k='highway' v='residential'/></way>\n"
+                + "</osm>\n";
+        RoadGraphBuilder builder = RoadGraphBuilder.fromOsm(new ByteArrayInputStream(osm.getBytes(StandardCharsets.UTF_8)));
+        builder.tagZones(new StringReader("zone_id,way_id,direction\nramp,11,forward\nmain,10,backward\n"));
+        RoadGraph graph = roundTrip(builder);
+
+        // Footway dropped, the way clipped at the extract edge has no edge left.
+        assertEquals(4, graph.nodeCount);
+        assertEquals(3, graph.edgeCount);
+        assertFalse(graph.isOneway(0));
+        assertFalse(graph.isOneway(1));
+
+        // oneway=-1 is stored against the node order, pointing with traffic from node 4 to node 3.
+        int ramp = 2;
+        assertTrue(graph.isOneway(ramp));
+        assertTrue(graph.nodeX[graph.edgeFrom[ramp]] > graph.nodeX[graph.edgeTo[ramp]]);
+        // "forward" in the CSV means along the OSM node order, which is against traffic here.
+        assertTrue(graph.zoneAppliesTo("ramp", ramp, RoadGraph.DIRECTION_BACKWARD));
+        assertFalse(graph.zoneAppliesTo("ramp", ramp, RoadGraph.DIRECTION_FORWARD));
+
+        assertTrue(graph.zoneAppliesTo("main", 0, RoadGraph.DIRECTION_BACKWARD));
+        assertTrue(graph.zoneAppliesTo("main", 1, RoadGraph.DIRECTION_BACKWARD));
+        assertFalse(graph.zoneAppliesTo("main", 1, RoadGraph.DIRECTION_FORWARD));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsZonesOnUnknownWays() throws IOException {
+        new RoadGraphBuilder().tagZones(new StringReader("z,42,both\n"));
+    }
+}
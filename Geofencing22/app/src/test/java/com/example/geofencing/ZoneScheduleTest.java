@@ -0,0 +1,114 @@
+package com.example.geofencing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZoneScheduleTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    // Monday 2024-01-01 00:00 UTC.
+    private static final long MONDAY = 1704067200000L;
+    private static final long SATURDAY = MONDAY + 5 * DAY;
+    private static final long SUNDAY = MONDAY + 6 * DAY;
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void useUtc() {
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void restoreZone() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public void missingScheduleMeansAlwaysActive() {
+        assertNull(ZoneSchedule.parse(null));
+        assertNull(ZoneSchedule.parse("  "));
+    }
+
+    @Test
+    public void rejectsSchedulesThatAreNeverActiveOrMalformed() {
+        String[] bad = {"0:0800-0900", "128:0800-0900", ";", " ; ", "62:0800", "62:2500-0100", "62:0860-0900", "x:0800-0900", "62:800-0900"};
+        for (String spec : bad) {
+            try {
+                ZoneSchedule.parse(spec);
+                fail("accepted " + spec);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void weekdayMornings() {
+        ZoneSchedule schedule = ZoneSchedule.parse("62:0800-0900");
+        assertTrue(schedule.isActive(MONDAY + 8 * HOUR + 30 * MINUTE));
+        assertFalse(schedule.isActive(MONDAY + 9 * HOUR));
+        assertFalse(schedule.isActive(MONDAY + 7 * HOUR + 59 * MINUTE));
+        assertFalse(schedule.isActive(SUNDAY + 8 * HOUR + 30 * MINUTE));
+
+        assertEquals(MONDAY + 8 * HOUR, schedule.nextBoundary(MONDAY + 7 * HOUR + 15 * 1000));
+        assertEquals(MONDAY + 9 * HOUR, schedule.nextBoundary(MONDAY + 8 * HOUR));
+        // Friday after the window: the next one opens on Monday.
+        assertEquals(MONDAY + 7 * DAY + 8 * HOUR, schedule.nextBoundary(MONDAY + 4 * DAY + 10 * HOUR));
+    }
+
+    @Test
+    public void windowsRunPastMidnightAndTheEndOfTheWeek() {
+        ZoneSchedule schedule = ZoneSchedule.parse("64:2200-0600");
+        assertTrue(schedule.isActive(SATURDAY + 23 * HOUR));
+        assertTrue(schedule.isActive(SUNDAY + 5 * HOUR));
+        assertFalse(schedule.isActive(SUNDAY + 6 * HOUR));
+        assertFalse(schedule.isActive(SATURDAY + 21 * HOUR));
+        assertEquals(SUNDAY + 6 * HOUR, schedule.activeUntil(SATURDAY + 23 * HOUR));
+    }
+
+    @Test
+    public void activeUntilSpansAdjacentWindows() {
+        ZoneSchedule schedule = ZoneSchedule.parse("2:0800-0900; 2:0900-1000");
+        assertEquals(MONDAY + 10 * HOUR, schedule.activeUntil(MONDAY + 8 * HOUR + 30 * MINUTE));
+    }
+
+    @Test
+    public void followsTheDefaultTimeZone() {
+        ZoneSchedule schedule = ZoneSchedule.parse("2:0800-0900");
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+        // 08:30 in India is 03:00 UTC.
+        assertTrue(schedule.isActive(MONDAY + 3 * HOUR));
+        assertFalse(schedule.isActive(MONDAY + 8 * HOUR + 30 * MINUTE));
+    }
+
+    @Test
+    public void keepsLocalTimesAcrossDaylightSavingChanges() {
+        ZoneSchedule schedule = ZoneSchedule.parse("1:0800-0900");
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+
+        // Clocks go forward on Sunday 2024-03-10, 08:00 EDT is 12:00 UTC.
+        long saturdayNoonEst = 1710003600000L; // 2024-03-09 17:00 UTC
+        long springOpen = 1710072000000L; // 2024-03-10 12:00 UTC
+        assertEquals(springOpen, schedule.nextBoundary(saturdayNoonEst));
+        assertEquals(springOpen + HOUR, schedule.activeUntil(springOpen));
+        assertTrue(schedule.isActive(springOpen));
+
+        // Clocks go back on Sunday 2024-11-03, 08:00 EST is 13:00 UTC.
+        long saturdayNoonEdt = 1730563200000L; // 2024-11-02 16:00 UTC
+        long fallOpen = 1730638800000L; // 2024-11-03 13:00 UTC
+        assertEquals(fallOpen, schedule.nextBoundary(saturdayNoonEdt));
+        assertEquals(fallOpen + HOUR, schedule.activeUntil(fallOpen));
+        assertFalse(schedule.isActive(fallOpen - MINUTE));
+    }
+}
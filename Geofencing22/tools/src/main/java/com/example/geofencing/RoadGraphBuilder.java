@@ -0,0 +1,344 @@
+package com.example.geofencing;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Writes the {@code roads.bin} extract read by the app's {@code RoadGraph}.
+ * <p>
+ * The usual source is an OpenStreetMap XML extract of the area (for example cut with osmium or
+ * exported from overpass) plus a CSV that tags zones to the roads they belong to, one
+ * {@code zone_id,way_id,direction} row per road where direction is {@code forward},
+ * {@code backward} or {@code both}, relative to the OSM way's node order. Run it on a desktop JVM:
+ * <pre>
+ * ./gradlew :tools:run --args="area.osm zones.csv roads.bin"
+ * </pre>
+ * and ship the output as {@code assets/roads.bin}, or push a newer one into the app files dir,
+ * which wins over the asset. See {@code RoadMatchFilter}.
+ */
+public class RoadGraphBuilder {
+
+    // Must match RoadGraph in the app.
+    private static final int MAGIC = 0x52475831; // "RGX1"
+    private static final int FLAG_ONEWAY = 1;
+
+    private static final int MASK_FORWARD = 1;
+    private static final int MASK_BACKWARD = 2;
+
+    // Drivable OSM highway classes, service roads included since zones sit on them too.
+    private static final List<String> HIGHWAYS = Arrays.asList(
+            "motorway", "motorway_link", "trunk", "trunk_link", "primary", "primary_link",
+            "secondary", "secondary_link", "tertiary", "tertiary_link", "unclassified",
+            "residential", "living_street", "service", "road");
+
+    private int[] latE6 = new int[1024];
+    private int[] lonE6 = new int[1024];
+    private int nodeCount;
+
+    private int[] edgeFrom = new int[1024];
+    private int[] edgeTo = new int[1024];
+    private byte[] edgeFlags = new byte[1024];
+    private int edgeCount;
+
+    // Tagged (edge, direction mask) pairs per zone, in insertion order.
+    private final Map<String, List<int[]>> zoneTags = new LinkedHashMap<>();
+
+    // Edges of every imported OSM way, in way order, for zone tagging.
+    private final Map<Long, int[]> wayEdges = new HashMap<>();
+    private final Map<Long, Boolean> wayReversed = new HashMap<>();
+
+    public int addNode(double latitude, double longitude) {
+        if (nodeCount == latE6.length) {
+            latE6 = Arrays.copyOf(latE6, nodeCount * 2);
+            lonE6 = Arrays.copyOf(lonE6, nodeCount * 2);
+        }
+        latE6[nodeCount] = (int) Math.round(latitude * 1e6);
+        lonE6[nodeCount] = (int) Math.round(longitude * 1e6);
+        return nodeCount++;
+    }
+
+    public int addEdge(int from, int to, boolean oneway) {
+        if (from < 0 || from >= nodeCount || to < 0 || to >= nodeCount) {
+            throw new IllegalArgumentException("Edge between unknown nodes " + from + " and " + to);
+        }
+        if (edgeCount == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edgeCount * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edgeCount * 2);
+            edgeFlags = Arrays.copyOf(edgeFlags, edgeCount * 2);
+        }
+        edgeFrom[edgeCount] = from;
+        edgeTo[edgeCount] = to;
+        edgeFlags[edgeCount] = oneway ? (byte) FLAG_ONEWAY : 0;
+        return edgeCount++;
+    }
+
+    /**
+     * Makes the zone apply to {@code edge} in the given directions only.
+     */
+    public void tagZone(String zoneId, int edge, boolean forward, boolean backward) {
+        if (edge < 0 || edge >= edgeCount) {
+            throw new IllegalArgumentException("Unknown edge " + edge);
+        }
+        int mask = (forward ? MASK_FORWARD : 0) | (backward ? MASK_BACKWARD : 0);
+        List<int[]> tags = zoneTags.get(zoneId);
+        if (tags == null) {
+            tags = new ArrayList<>();
+            zoneTags.put(zoneId, tags);
+        }
+        tags.add(new int[]{edge, mask});
+    }
+
+    /**
+     * Tags every edge of an imported OSM way, direction relative to the way's node order.
+     */
+    public void tagZoneOnWay(String zoneId, long wayId, boolean forward, boolean backward) {
+        int[] edges = wayEdges.get(wayId);
+        if (edges == null) {
+            throw new IllegalArgumentException("Way " + wayId + " was not imported");
+        }
+        // Ways tagged oneway=-1 were imported in reverse node order.
+        boolean reversed = wayReversed.get(wayId);
+        for (int edge : edges) {
+            tagZone(zoneId, edge, reversed ? backward : forward, reversed ? forward : backward);
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            out.writeInt(latE6[i]);
+            out.writeInt(lonE6[i]);
+        }
+        out.writeInt(edgeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            out.writeInt(edgeFrom[e]);
+            out.writeInt(edgeTo[e]);
+            out.writeByte(edgeFlags[e]);
+        }
+        out.writeInt(zoneTags.size());
+        for (Map.Entry<String, List<int[]>> zone : zoneTags.entrySet()) {
+            out.writeUTF(zone.getKey());
+            out.writeInt(zone.getValue().size());
+            for (int[] tag : zone.getValue()) {
+                out.writeInt(tag[0]);
+                out.writeByte(tag[1]);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Imports the drivable ways of an OSM XML extract. Nodes not on any imported way are left out.
+     */
+    public static RoadGraphBuilder fromOsm(InputStream osm) throws IOException {
+        final Map<Long, double[]> positions = new HashMap<>();
+        final List<long[]> wayNodes = new ArrayList<>();
+        final List<Long> wayIds = new ArrayList<>();
+        final List<Integer> wayOneway = new ArrayList<>();
+
+        DefaultHandler handler = new DefaultHandler() {
+            private List<Long> refs;
+            private long wayId;
+            private String highway;
+            private String oneway;
+            private String junction;
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                switch (qName) {
+                    case "node":
+                        positions.put(Long.parseLong(attributes.getValue("id")), new double[]{
+                                Double.parseDouble(attributes.getValue("lat")),
+                                Double.parseDouble(attributes.getValue("lon"))});
+                        break;
+                    case "way":
+                        refs = new ArrayList<>();
+                        wayId = Long.parseLong(attributes.getValue("id"));
+                        highway = null;
+                        oneway = null;
+                        junction = null;
+                        break;
+                    case "nd":
+                        if (refs != null) {
+                            refs.add(Long.parseLong(attributes.getValue("ref")));
+                        }
+                        break;
+                    case "tag":
+                        if (refs != null) {
+                            String key = attributes.getValue("k");
+                            if ("highway".equals(key)) {
+                                highway = attributes.getValue("v");
+                            } else if ("oneway".equals(key)) {
+                                oneway = attributes.getValue("v");
+                            } else if ("junction".equals(key)) {
+                                junction = attributes.getValue("v");
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if (!"way".equals(qName) || refs == null) {
+                    return;
+                }
+                if (highway != null && HIGHWAYS.contains(highway) && refs.size() >= 2) {
+                    long[] nodes = new long[refs.size()];
+                    for (int i = 0; i < nodes.length; i++) {
+                        nodes[i] = refs.get(i);
+                    }
+                    wayNodes.add(nodes);
+                    wayIds.add(wayId);
+                    wayOneway.add(onewayOf(highway, oneway, junction));
+                }
+                refs = null;
+            }
+        };
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(osm, handler);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Bad OSM extract: " + e.getMessage(), e);
+        }
+
+        RoadGraphBuilder builder = new RoadGraphBuilder();
+        Map<Long, Integer> nodeIndex = new HashMap<>();
+        for (int w = 0; w < wayNodes.size(); w++) {
+            long[] nodes = wayNodes.get(w);
+            int direction = wayOneway.get(w);
+            int[] edges = new int[nodes.length - 1];
+            int edgeCount = 0;
+            int previous = -1;
+            for (int i = 0; i < nodes.length; i++) {
+                // oneway=-1 runs against the node order, flip it so edges always point with traffic.
+                long id = nodes[direction < 0 ? nodes.length - 1 - i : i];
+                double[] position = positions.get(id);
+                if (position == null) {
+                    // Clipped at the extract boundary.
+                    previous = -1;
+                    continue;
+                }
+                Integer index = nodeIndex.get(id);
+                if (index == null) {
+                    index = builder.addNode(position[0], position[1]);
+                    nodeIndex.put(id, index);
+                }
+                if (previous >= 0 && previous != index) {
+                    edges[edgeCount++] = builder.addEdge(previous, index, direction != 0);
+                }
+                previous = index;
+            }
+            builder.wayEdges.put(wayIds.get(w), Arrays.copyOf(edges, edgeCount));
+            builder.wayReversed.put(wayIds.get(w), direction < 0);
+        }
+        return builder;
+    }
+
+    /**
+     * Reads {@code zone_id,way_id,direction} rows, a header row and blank lines are skipped.
+     */
+    public void tagZones(Reader csv) throws IOException {
+        BufferedReader reader = new BufferedReader(csv);
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("zone_id")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length != 3) {
+                throw new IOException("Line " + number + ": expected zone_id,way_id,direction");
+            }
+            String direction = fields[2].trim();
+            boolean forward = "forward".equals(direction) || "both".equals(direction);
+            boolean backward = "backward".equals(direction) || "both".equals(direction);
+            if (!forward && !backward) {
+                throw new IOException("Line " + number + ": direction must be forward, backward or both");
+            }
+            try {
+                tagZoneOnWay(fields[0].trim(), Long.parseLong(fields[1].trim()), forward, backward);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + number + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // 1 for oneway along the node order, -1 against it, 0 for two way.
+    private static int onewayOf(String highway, String oneway, String junction) {
+        if ("-1".equals(oneway) || "reverse".equals(oneway)) {
+            return -1;
+        }
+        if ("yes".equals(oneway) || "true".equals(oneway) || "1".equals(oneway)) {
+            return 1;
+        }
+        if ("no".equals(oneway)) {
+            return 0;
+        }
+        return "motorway".equals(highway) || "roundabout".equals(junction) ? 1 : 0;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: RoadGraphBuilder <extract.osm> [zones.csv] <roads.bin>");
+            System.exit(2);
+        }
+        RoadGraphBuilder builder;
+        InputStream osm = new FileInputStream(args[0]);
+        try {
+            builder = fromOsm(osm);
+        } finally {
+            osm.close();
+        }
+        if (args.length == 3) {
+            Reader csv = new FileReader(args[1]);
+            try {
+                builder.tagZones(csv);
+            } finally {
+                csv.close();
+            }
+        }
+        OutputStream out = new FileOutputStream(args[args.length - 1]);
+        try {
+            builder.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println(builder.getNodeCount() + " nodes, " + builder.getEdgeCount() + " edges, "
+                + builder.zoneTags.size() + " tagged zones");
+    }
+}
@@ -2,6 +2,10 @@ package lbn.geospark.com.geosparknotify;
 
 import android.content.Context;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 class SharedPreference {
 
     private static String PREFS = "NOTIFY_DB";
@@ -18,4 +22,30 @@ class SharedPreference {
         android.content.SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
         return sp.getString("DEVICETOKEN", null);
     }
+
+    static void setZoneAnchor(Context context, String anchor) {
+        android.content.SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        android.content.SharedPreferences.Editor editor = sp.edit();
+        editor.putString("ZONEANCHOR", anchor);
+        editor.apply();
+    }
+
+    static void setZoneTiles(Context context, Set<String> tiles) {
+        android.content.SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        android.content.SharedPreferences.Editor editor = sp.edit();
+        // Stored as a copy, the editor keeps a reference to the set it is given.
+        editor.putStringSet("ZONETILES", new HashSet<>(tiles));
+        editor.apply();
+    }
+
+    static String getZoneAnchor(Context context) {
+        android.content.SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        return sp.getString("ZONEANCHOR", null);
+    }
+
+    static Set<String> getZoneTiles(Context context) {
+        android.content.SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        // The returned set must not be modified, hand out a copy.
+        return new HashSet<>(sp.getStringSet("ZONETILES", Collections.<String>emptySet()));
+    }
 }
@@ -0,0 +1,54 @@
+package lbn.geospark.com.geosparknotify;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Log;
+
+import com.geospark.lib.location.GeoSparkReceiver;
+import com.geospark.lib.model.GeoSparkError;
+import com.geospark.lib.model.GeoSparkUser;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records every fix in the {@link TripTraceStore} and keeps the zone topic tiles around it.
+ * The work runs on one background thread, in arrival order, while the broadcast is kept alive;
+ * the store batches its own disk writes.
+ */
+public class TraceLocationReceiver extends GeoSparkReceiver {
+
+    private static final String TAG = "TraceLocationReceiver";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onLocationUpdated(Context context, Location location, GeoSparkUser geoSparkUser, String activity) {
+        final Context appContext = context.getApplicationContext();
+        final double latitude = location.getLatitude();
+        final double longitude = location.getLongitude();
+        final long time = location.getTime();
+        final PendingResult pendingResult = goAsync();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TripTraceStore.getInstance(appContext).append(latitude, longitude, time);
+                } catch (IOException e) {
+                    Log.d(TAG, "onLocationUpdated: " + e.getLocalizedMessage());
+                }
+                try {
+                    ZoneTopicSubscriber.getInstance(appContext).onLocation(latitude, longitude);
+                } finally {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onError(Context context, GeoSparkError geoSparkError) {
+        Log.d(TAG, "onError: " + geoSparkError.getErrorMessage());
+    }
+}
@@ -0,0 +1,382 @@
+package lbn.geospark.com.geosparknotify;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-device store for the tracked trip trace.
+ * <p>
+ * Fixes are kept as fixed point (1e-5 degree, 1 second) and written as zigzag varint deltas
+ * against the previous fix, packed into fixed size chunks. The first fix of every chunk is
+ * absolute so a chunk can be decoded on its own. Chunks are grouped in segment files and the
+ * oldest segments are deleted once the store grows past its retention cap.
+ * A 1 Hz drive costs around 3-4 bytes per fix, so a full day stays in the few hundred KB range.
+ * <p>
+ * Appends reach disk every {@link #FLUSH_EVERY} fixes or once {@link #FLUSH_INTERVAL_SECONDS} of
+ * trace time has piled up, whichever comes first, so a killed process loses at most that much.
+ * A damaged last chunk is dropped on open like a torn write.
+ */
+class TripTraceStore {
+
+    private static final String TAG = "TripTraceStore";
+
+    private static final String DIR_NAME = "trace";
+    private static final String SEGMENT_SUFFIX = ".trc";
+
+    static final int CHUNK_SIZE = 4096;
+    private static final int CHUNKS_PER_SEGMENT = 64;
+    private static final int HEADER_SIZE = 4;
+    // Worst case for one fix: two 5 byte varints and a 10 byte time varint.
+    private static final int MAX_RECORD_SIZE = 20;
+    private static final int FLUSH_EVERY = 60;
+    private static final long FLUSH_INTERVAL_SECONDS = 30;
+    private static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    private static final double SCALE = 1e5;
+
+    private static TripTraceStore instance;
+
+    interface Visitor {
+        void onFix(double latitude, double longitude, long timeMillis);
+    }
+
+    private final File dir;
+    private final long maxBytes;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int position = HEADER_SIZE;
+    // Bytes of the current chunk already on disk.
+    private int flushedPosition = HEADER_SIZE;
+    private int count;
+    private int unflushed;
+    // Trace time, in seconds, of the newest fix on disk.
+    private long flushedTime;
+
+    private int lastLat;
+    private int lastLon;
+    private long lastTime;
+
+    private RandomAccessFile segment;
+    private long segmentSeq;
+    private int chunkIndex;
+
+    static synchronized TripTraceStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new TripTraceStore(new File(context.getFilesDir(), DIR_NAME), DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    TripTraceStore(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized void append(double latitude, double longitude, long timeMillis) throws IOException {
+        ensureOpen();
+        if (position + MAX_RECORD_SIZE > CHUNK_SIZE) {
+            sealChunk();
+        }
+        int lat = (int) Math.round(latitude * SCALE);
+        int lon = (int) Math.round(longitude * SCALE);
+        long time = timeMillis / 1000;
+        if (count == 0) {
+            position = writeVarint(chunk, position, zigzag(lat) & 0xFFFFFFFFL);
+            position = writeVarint(chunk, position, zigzag(lon) & 0xFFFFFFFFL);
+            position = writeVarint(chunk, position, time);
+        } else {
+            position = writeVarint(chunk, position, zigzag(lat - lastLat) & 0xFFFFFFFFL);
+            position = writeVarint(chunk, position, zigzag(lon - lastLon) & 0xFFFFFFFFL);
+            position = writeVarint(chunk, position, zigzag(time - lastTime));
+        }
+        lastLat = lat;
+        lastLon = lon;
+        lastTime = time;
+        count++;
+        if (++unflushed >= FLUSH_EVERY || time - flushedTime >= FLUSH_INTERVAL_SECONDS) {
+            writeChunk(false);
+        }
+    }
+
+    synchronized void flush() throws IOException {
+        if (segment != null && unflushed > 0) {
+            writeChunk(false);
+        }
+    }
+
+    /**
+     * Streams every stored fix, oldest first, decoding one chunk at a time.
+     * Only the segment list is taken under the lock, so appends carry on while a long read runs.
+     */
+    void read(Visitor visitor) throws IOException {
+        File[] segments;
+        synchronized (this) {
+            flush();
+            segments = listSegments();
+        }
+        byte[] buffer = new byte[CHUNK_SIZE];
+        for (File file : segments) {
+            RandomAccessFile in;
+            try {
+                in = new RandomAccessFile(file, "r");
+            } catch (FileNotFoundException e) {
+                // Dropped by retention since the list was taken.
+                continue;
+            }
+            try {
+                long chunks = in.length() / CHUNK_SIZE;
+                for (long i = 0; i < chunks; i++) {
+                    in.seek(i * CHUNK_SIZE);
+                    in.readFully(buffer);
+                    decodeChunk(buffer, visitor);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    synchronized long sizeBytes() {
+        long total = 0;
+        for (File file : listSegments()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    synchronized void close() throws IOException {
+        flush();
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (segment != null) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File[] segments = listSegments();
+        if (segments.length == 0) {
+            openSegment(1);
+            return;
+        }
+        File last = segments[segments.length - 1];
+        segmentSeq = parseSeq(last);
+        segment = new RandomAccessFile(last, "rw");
+        long chunks = segment.length() / CHUNK_SIZE;
+        if (chunks == 0) {
+            resetChunk();
+            return;
+        }
+        chunkIndex = (int) (chunks - 1);
+        segment.seek((long) chunkIndex * CHUNK_SIZE);
+        segment.readFully(chunk);
+        try {
+            restoreChunk();
+        } catch (IOException e) {
+            // Torn or damaged tail: start the chunk over in place.
+            segment.setLength((long) chunkIndex * CHUNK_SIZE);
+            resetChunk();
+        }
+        if (count > 0 && position + MAX_RECORD_SIZE > CHUNK_SIZE) {
+            sealChunk();
+        }
+    }
+
+    private void sealChunk() throws IOException {
+        writeChunk(true);
+        resetChunk();
+        if (++chunkIndex >= CHUNKS_PER_SEGMENT) {
+            segment.close();
+            openSegment(segmentSeq + 1);
+            enforceRetention();
+        }
+    }
+
+    /**
+     * Writes the records added since the last write, then the header, so a concurrent reader never
+     * sees a header that counts records not on disk yet. {@code full} rewrites the whole chunk.
+     */
+    private void writeChunk(boolean full) throws IOException {
+        long start = (long) chunkIndex * CHUNK_SIZE;
+        if (full) {
+            flushedPosition = HEADER_SIZE;
+        }
+        if (segment.length() < start + CHUNK_SIZE) {
+            segment.setLength(start + CHUNK_SIZE);
+        }
+        if (position > flushedPosition) {
+            segment.seek(start + flushedPosition);
+            segment.write(chunk, flushedPosition, position - flushedPosition);
+            flushedPosition = position;
+        }
+        chunk[0] = (byte) (count >>> 8);
+        chunk[1] = (byte) count;
+        chunk[2] = (byte) (position >>> 8);
+        chunk[3] = (byte) position;
+        segment.seek(start);
+        segment.write(chunk, 0, HEADER_SIZE);
+        unflushed = 0;
+        flushedTime = lastTime;
+    }
+
+    private void resetChunk() {
+        position = HEADER_SIZE;
+        flushedPosition = HEADER_SIZE;
+        count = 0;
+        unflushed = 0;
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segmentSeq = seq;
+        segment = new RandomAccessFile(new File(dir, String.format("%012d%s", seq, SEGMENT_SUFFIX)), "rw");
+        chunkIndex = 0;
+        resetChunk();
+    }
+
+    private void enforceRetention() {
+        File[] segments = listSegments();
+        long total = 0;
+        for (File file : segments) {
+            total += file.length();
+        }
+        // The newest segment is the one being written, never drop it.
+        for (int i = 0; i < segments.length - 1 && total > maxBytes; i++) {
+            total -= segments[i].length();
+            if (!segments[i].delete()) {
+                Log.d(TAG, "enforceRetention: Could not delete " + segments[i]);
+            }
+        }
+    }
+
+    private File[] listSegments() {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return files;
+    }
+
+    private static long parseSeq(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // Rebuilds the encoder state from the partially filled chunk found on disk.
+    private void restoreChunk() throws IOException {
+        count = ((chunk[0] & 0xff) << 8) | (chunk[1] & 0xff);
+        position = ((chunk[2] & 0xff) << 8) | (chunk[3] & 0xff);
+        unflushed = 0;
+        if (count == 0 || position < HEADER_SIZE || position > CHUNK_SIZE) {
+            resetChunk();
+            return;
+        }
+        flushedPosition = position;
+        int[] pos = {HEADER_SIZE};
+        for (int i = 0; i < count; i++) {
+            int dLat = unzigzag((int) readVarint(chunk, pos, position));
+            int dLon = unzigzag((int) readVarint(chunk, pos, position));
+            long dTime = i == 0 ? readVarint(chunk, pos, position) : unzigzag(readVarint(chunk, pos, position));
+            lastLat = i == 0 ? dLat : lastLat + dLat;
+            lastLon = i == 0 ? dLon : lastLon + dLon;
+            lastTime = i == 0 ? dTime : lastTime + dTime;
+        }
+        if (pos[0] != position) {
+            throw new IOException("Chunk holds " + (position - pos[0]) + " bytes past its last fix");
+        }
+        flushedTime = lastTime;
+    }
+
+    private static void decodeChunk(byte[] buffer, Visitor visitor) {
+        int fixes = ((buffer[0] & 0xff) << 8) | (buffer[1] & 0xff);
+        int used = ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+        if (fixes == 0 || used < HEADER_SIZE || used > CHUNK_SIZE) {
+            return;
+        }
+        int[] pos = {HEADER_SIZE};
+        int lat = 0;
+        int lon = 0;
+        long time = 0;
+        try {
+            for (int i = 0; i < fixes && pos[0] < used; i++) {
+                int dLat = unzigzag((int) readVarint(buffer, pos, used));
+                int dLon = unzigzag((int) readVarint(buffer, pos, used));
+                if (i == 0) {
+                    lat = dLat;
+                    lon = dLon;
+                    time = readVarint(buffer, pos, used);
+                } else {
+                    lat += dLat;
+                    lon += dLon;
+                    time += unzigzag(readVarint(buffer, pos, used));
+                }
+                visitor.onFix(lat / SCALE, lon / SCALE, time * 1000);
+            }
+        } catch (IOException e) {
+            // Damaged chunk: keep the fixes before the damage and go on with the next chunk.
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int writeVarint(byte[] buffer, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(byte[] buffer, int[] position, int limit) throws IOException {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position[0] >= limit || shift > 63) {
+                throw new IOException("Varint runs past the chunk at " + position[0]);
+            }
+            b = buffer[position[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+package lbn.geospark.com.geosparknotify;
+
+/**
+ * Geohash tiles used to shard zone alerts over FCM topics.
+ * Must stay in step with {@code ZoneTiles} in the backend, which picks the topic for a zone.
+ */
+final class ZoneTiles {
+
+    // 5 characters is a tile of roughly 4.9 x 4.9 km at the equator.
+    static final int PRECISION = 5;
+    static final String TOPIC_PREFIX = "zone_";
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private ZoneTiles() {
+    }
+
+    static String topic(String tile) {
+        return TOPIC_PREFIX + tile;
+    }
+
+    static String encode(double latitude, double longitude) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        char[] hash = new char[PRECISION];
+        boolean even = true;
+        for (int i = 0; i < PRECISION; i++) {
+            int bits = 0;
+            for (int b = 0; b < 5; b++) {
+                bits <<= 1;
+                if (even) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (longitude >= mid) {
+                        bits |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        bits |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                even = !even;
+            }
+            hash[i] = BASE32[bits];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Returns {minLat, minLon, maxLat, maxLon} of a tile.
+     */
+    static double[] bounds(String tile) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        boolean even = true;
+        for (int i = 0; i < tile.length(); i++) {
+            int bits = indexOf(tile.charAt(i));
+            for (int b = 4; b >= 0; b--) {
+                boolean set = ((bits >> b) & 1) != 0;
+                if (even) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (set) {
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (set) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                even = !even;
+            }
+        }
+        return new double[]{minLat, minLon, maxLat, maxLon};
+    }
+
+    /**
+     * The tile itself and its eight neighbours, without duplicates near the poles.
+     */
+    static String[] neighbourhood(String tile) {
+        double[] box = bounds(tile);
+        double height = box[2] - box[0];
+        double width = box[3] - box[1];
+        double centerLat = (box[0] + box[2]) / 2;
+        double centerLon = (box[1] + box[3]) / 2;
+        String[] tiles = new String[9];
+        int count = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            double latitude = Math.max(-90, Math.min(89.999999, centerLat + dy * height));
+            for (int dx = -1; dx <= 1; dx++) {
+                double longitude = centerLon + dx * width;
+                if (longitude >= 180) {
+                    longitude -= 360;
+                } else if (longitude < -180) {
+                    longitude += 360;
+                }
+                String neighbour = encode(latitude, longitude);
+                boolean seen = false;
+                for (int i = 0; i < count; i++) {
+                    seen |= tiles[i].equals(neighbour);
+                }
+                if (!seen) {
+                    tiles[count++] = neighbour;
+                }
+            }
+        }
+        String[] result = new String[count];
+        System.arraycopy(tiles, 0, result, 0, count);
+        return result;
+    }
+
+    private static int indexOf(char c) {
+        for (int i = 0; i < BASE32.length; i++) {
+            if (BASE32[i] == c) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a geohash character: " + c);
+    }
+}
@@ -0,0 +1,138 @@
+package lbn.geospark.com.geosparknotify;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the device subscribed to the FCM topics of the zone tiles around the driver, so a hazard
+ * alert for a zone reaches everyone nearby with one topic send per tile.
+ * <p>
+ * The driver's tile plus its eight neighbours are wanted. The set only moves once the driver is
+ * a quarter of a tile past the edge of the tile it was built around, so driving along a tile edge
+ * does not flap subscriptions. A move to a side neighbour costs three subscribes and three
+ * unsubscribes, a diagonal move five of each.
+ * <p>
+ * Only tiles FCM confirmed are stored as subscribed, each in its own completion callback. Every
+ * location reconciles the stored set with the wanted one, so a failed call is retried on a later
+ * fix, at most once a minute.
+ */
+class ZoneTopicSubscriber {
+
+    private static final String TAG = "ZoneTopicSubscriber";
+
+    private static final double HYSTERESIS = 0.25;
+    private static final long RETRY_DELAY_MILLIS = 60 * 1000;
+
+    private static ZoneTopicSubscriber instance;
+
+    private final Context context;
+    private String anchor;
+    private double[] anchorBounds;
+    private Set<String> wanted = new HashSet<>();
+    // Confirmed by FCM, persisted.
+    private final Set<String> subscribed;
+    private final Set<String> inFlight = new HashSet<>();
+    private long retryAt;
+
+    static synchronized ZoneTopicSubscriber getInstance(Context context) {
+        if (instance == null) {
+            instance = new ZoneTopicSubscriber(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ZoneTopicSubscriber(Context context) {
+        this.context = context;
+        this.anchor = SharedPreference.getZoneAnchor(context);
+        if (anchor != null) {
+            this.anchorBounds = ZoneTiles.bounds(anchor);
+            this.wanted = new HashSet<>(Arrays.asList(ZoneTiles.neighbourhood(anchor)));
+        }
+        this.subscribed = SharedPreference.getZoneTiles(context);
+    }
+
+    synchronized void onLocation(double latitude, double longitude) {
+        if (anchorBounds == null || !nearAnchor(latitude, longitude)) {
+            String next = ZoneTiles.encode(latitude, longitude);
+            Log.d(TAG, "onLocation: Zone tiles moved from " + anchor + " to " + next);
+            anchor = next;
+            anchorBounds = ZoneTiles.bounds(next);
+            wanted = new HashSet<>(Arrays.asList(ZoneTiles.neighbourhood(next)));
+            SharedPreference.setZoneAnchor(context, anchor);
+        }
+        reconcile();
+    }
+
+    private void reconcile() {
+        if (SystemClock.elapsedRealtime() < retryAt) {
+            return;
+        }
+        FirebaseMessaging messaging = FirebaseMessaging.getInstance();
+        List<String> unsubscribe = new ArrayList<>();
+        for (String tile : subscribed) {
+            if (!wanted.contains(tile) && !inFlight.contains(tile)) {
+                unsubscribe.add(tile);
+            }
+        }
+        for (String tile : unsubscribe) {
+            inFlight.add(tile);
+            messaging.unsubscribeFromTopic(ZoneTiles.topic(tile)).addOnCompleteListener(new TileListener(tile, false));
+        }
+        for (String tile : wanted) {
+            if (!subscribed.contains(tile) && !inFlight.contains(tile)) {
+                inFlight.add(tile);
+                messaging.subscribeToTopic(ZoneTiles.topic(tile)).addOnCompleteListener(new TileListener(tile, true));
+            }
+        }
+    }
+
+    private synchronized void onTileDone(String tile, boolean subscribe, Task<Void> task) {
+        inFlight.remove(tile);
+        if (!task.isSuccessful()) {
+            Log.d(TAG, "onTileDone: " + (subscribe ? "Subscribe to " : "Unsubscribe from ") + tile + " failed, retrying later");
+            retryAt = SystemClock.elapsedRealtime() + RETRY_DELAY_MILLIS;
+            return;
+        }
+        if (subscribe) {
+            subscribed.add(tile);
+        } else {
+            subscribed.remove(tile);
+        }
+        SharedPreference.setZoneTiles(context, subscribed);
+    }
+
+    private boolean nearAnchor(double latitude, double longitude) {
+        double marginLat = (anchorBounds[2] - anchorBounds[0]) * HYSTERESIS;
+        double marginLon = (anchorBounds[3] - anchorBounds[1]) * HYSTERESIS;
+        return latitude >= anchorBounds[0] - marginLat && latitude <= anchorBounds[2] + marginLat
+                && longitude >= anchorBounds[1] - marginLon && longitude <= anchorBounds[3] + marginLon;
+    }
+
+    private class TileListener implements OnCompleteListener<Void> {
+
+        private final String tile;
+        private final boolean subscribe;
+
+        TileListener(String tile, boolean subscribe) {
+            this.tile = tile;
+            this.subscribe = subscribe;
+        }
+
+        @Override
+        public void onComplete(@NonNull Task<Void> task) {
+            onTileDone(tile, subscribe, task);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package lbn.geospark.com.geosparknotify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TripTraceStoreTest {
+
+    private static final long START = 1577836800000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class Collector implements TripTraceStore.Visitor {
+        final List<double[]> fixes = new ArrayList<>();
+
+        @Override
+        public void onFix(double latitude, double longitude, long timeMillis) {
+            fixes.add(new double[]{latitude, longitude, timeMillis});
+        }
+    }
+
+    private static double latitude(int i) {
+        return 12.9774721 + 0.0001 * Math.sin(i / 300.0) + i * 1e-6;
+    }
+
+    private static double longitude(int i) {
+        return 80.1936779 - 0.0001 * Math.cos(i / 300.0) - i * 1e-6;
+    }
+
+    private static void assertFix(int i, double[] fix) {
+        assertEquals(latitude(i), fix[0], 1e-5);
+        assertEquals(longitude(i), fix[1], 1e-5);
+        assertEquals(START + i * 1000L, (long) fix[2]);
+    }
+
+    @Test
+    public void dayAtOneHertzRoundTripsAcrossReopen() throws IOException {
+        File dir = folder.newFolder("trace");
+        int fixes = 24 * 60 * 60;
+        TripTraceStore store = new TripTraceStore(dir, 8L * 1024 * 1024);
+        for (int i = 0; i < fixes / 2; i++) {
+            store.append(latitude(i), longitude(i), START + i * 1000L);
+        }
+        store.close();
+
+        store = new TripTraceStore(dir, 8L * 1024 * 1024);
+        for (int i = fixes / 2; i < fixes; i++) {
+            store.append(latitude(i), longitude(i), START + i * 1000L);
+        }
+        store.close();
+
+        Collector collector = new Collector();
+        new TripTraceStore(dir, 8L * 1024 * 1024).read(collector);
+        assertEquals(fixes, collector.fixes.size());
+        for (int i = 0; i < fixes; i++) {
+            assertFix(i, collector.fixes.get(i));
+        }
+        assertTrue("a day took " + store.sizeBytes() + " bytes", store.sizeBytes() <= 300 * 1024);
+    }
+
+    @Test
+    public void flushedFixesSurviveWithoutClose() throws IOException {
+        File dir = folder.newFolder("trace");
+        TripTraceStore store = new TripTraceStore(dir, 8L * 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            store.append(latitude(i), longitude(i), START + i * 1000L);
+            store.flush();
+        }
+        // No close: a fresh instance stands in for a restarted process.
+        Collector collector = new Collector();
+        new TripTraceStore(dir, 8L * 1024 * 1024).read(collector);
+        assertEquals(10, collector.fixes.size());
+        for (int i = 0; i < 10; i++) {
+            assertFix(i, collector.fixes.get(i));
+        }
+    }
+
+    @Test
+    public void negativeCoordinatesAndBackwardsTime() throws IOException {
+        TripTraceStore store = new TripTraceStore(folder.newFolder("trace"), 8L * 1024 * 1024);
+        store.append(-33.86785, 151.20732, START);
+        store.append(-33.86790, -151.20732, START - 5000);
+        Collector collector = new Collector();
+        store.read(collector);
+        assertEquals(2, collector.fixes.size());
+        assertEquals(-151.20732, collector.fixes.get(1)[1], 1e-5);
+        assertEquals(START - 5000, (long) collector.fixes.get(1)[2]);
+    }
+
+    @Test
+    public void retentionDropsOldestSegments() throws IOException {
+        long cap = 64L * TripTraceStore.CHUNK_SIZE;
+        TripTraceStore store = new TripTraceStore(folder.newFolder("trace"), cap);
+        int fixes = 200000;
+        for (int i = 0; i < fixes; i++) {
+            store.append(latitude(i), longitude(i), START + i * 1000L);
+        }
+        store.close();
+        assertTrue(store.sizeBytes() <= cap + 64 * TripTraceStore.CHUNK_SIZE);
+
+        Collector collector = new Collector();
+        store.read(collector);
+        int first = fixes - collector.fixes.size();
+        assertTrue(first > 0);
+        for (int i = 0; i < collector.fixes.size(); i++) {
+            assertFix(first + i, collector.fixes.get(i));
+        }
+    }
+
+    @Test
+    public void damagedLastChunkIsDroppedOnOpen() throws IOException {
+        File dir = folder.newFolder("trace");
+        TripTraceStore store = new TripTraceStore(dir, 8L * 1024 * 1024);
+        int fixes = 3000;
+        for (int i = 0; i < fixes; i++) {
+            store.append(latitude(i), longitude(i), START + i * 1000L);
+        }
+        store.close();
+
+        // Every byte of the last chunk becomes a varint continuation byte, with a header claiming it is full.
+        File segment = dir.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        long last = (file.length() / TripTraceStore.CHUNK_SIZE - 1) * TripTraceStore.CHUNK_SIZE;
+        assertTrue("needs more than one chunk", last > 0);
+        byte[] garbage = new byte[TripTraceStore.CHUNK_SIZE];
+        Arrays.fill(garbage, (byte) 0xFF);
+        garbage[2] = (byte) (TripTraceStore.CHUNK_SIZE >>> 8);
+        garbage[3] = (byte) TripTraceStore.CHUNK_SIZE;
+        file.seek(last);
+        file.write(garbage);
+        file.close();
+
+        Collector before = new Collector();
+        new TripTraceStore(dir, 8L * 1024 * 1024).read(before);
+        int kept = before.fixes.size();
+        assertTrue(kept > 0 && kept < fixes);
+
+        store = new TripTraceStore(dir, 8L * 1024 * 1024);
+        store.append(latitude(fixes), longitude(fixes), START + fixes * 1000L);
+        store.close();
+
+        Collector after = new Collector();
+        store.read(after);
+        assertEquals(kept + 1, after.fixes.size());
+        for (int i = 0; i < kept; i++) {
+            assertFix(i, after.fixes.get(i));
+        }
+        assertFix(fixes, after.fixes.get(kept));
+    }
+}
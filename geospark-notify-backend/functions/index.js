@@ -1,10 +1,49 @@
 const functions = require("firebase-functions");
 const cors = require("cors")({ origin: true });
 const admin = require("firebase-admin");
+const http = require("http");
+const https = require("https");
+const { URL } = require("url");
 admin.initializeApp();
 const database = admin.database().ref("/geofences");
 const udatabase = admin.database().ref("/users");
 
+// Geofence writes go through the Java backend, which versions them in /zone_changes so synced
+// devices see them. Set with `firebase functions:config:set backend.url=https://...`.
+const backend = functions.config().backend || {};
+const BACKEND_TIMEOUT_MS = 10000;
+
+function postJson(url, body) {
+  return new Promise((resolve, reject) => {
+    const target = new URL(url);
+    const payload = Buffer.from(JSON.stringify(body));
+    const request = (target.protocol === "https:" ? https : http).request(
+      {
+        protocol: target.protocol,
+        hostname: target.hostname,
+        port: target.port,
+        path: target.pathname + target.search,
+        method: "POST",
+        headers: {
+          "Content-Type": "application/json",
+          "Content-Length": payload.length
+        }
+      },
+      response => {
+        let data = "";
+        response.setEncoding("utf8");
+        response.on("data", chunk => {
+          data += chunk;
+        });
+        response.on("end", () => resolve({ status: response.statusCode, body: data }));
+      }
+    );
+    request.on("error", reject);
+    request.setTimeout(BACKEND_TIMEOUT_MS, () => request.abort());
+    request.end(payload);
+  });
+}
+
 // // Create and Deploy Your First Cloud Functions
 // // https://firebase.google.com/docs/functions/write-firebase-functions
 //
@@ -23,10 +62,32 @@ exports.addgeofence = functions.https.onRequest((req, res) => {
     const geofence_id = req.body.geofence_id;
     const gtitle = req.body.gtitle;
     const gmessage = req.body.gmessage;
-    database.push({ geofence_id, gtitle, gmessage });
-    res.status(200).json({
-      message: "Geofence created"
-    });
+    if (typeof geofence_id !== "string" || !/^[^.$#\[\]\/\x00-\x1f\x7f]{1,128}$/.test(geofence_id)) {
+      return res.status(400).json({
+        message: "Bad geofence_id"
+      });
+    }
+    if (!backend.url) {
+      return res.status(503).json({
+        message: "Backend not configured"
+      });
+    }
+    // Writing /geofences here would skip the change log and synced devices would never see the edit.
+    return postJson(backend.url.replace(/\/$/, "") + "/editgeofence", { geofence_id, gtitle, gmessage })
+      .then(response => {
+        let body;
+        try {
+          body = JSON.parse(response.body);
+        } catch (e) {
+          body = { message: response.body };
+        }
+        return res.status(response.status).json(body);
+      })
+      .catch(error => {
+        res.status(503).json({
+          message: `Backend unreachable. ${error.message}`
+        });
+      });
   });
 });
 
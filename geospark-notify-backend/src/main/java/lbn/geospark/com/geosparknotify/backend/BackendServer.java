@@ -0,0 +1,87 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java side of the notify backend, for work that does not fit single Cloud Function requests.
+ * <p>
+ * Needs application default credentials and {@code FIREBASE_DATABASE_URL}; listens on {@code PORT} (8080)
+ * and keeps undelivered pushes in {@code OUTBOX_FILE} (outbox.log).
+ */
+public class BackendServer {
+
+    private static final Logger LOG = Logger.getLogger(BackendServer.class.getName());
+
+    private static final long COMPACT_INTERVAL_MINUTES = 60;
+
+    public static void main(String[] args) throws IOException {
+        FirebaseOptions options = new FirebaseOptions.Builder()
+                .setCredentials(GoogleCredentials.getApplicationDefault())
+                .setDatabaseUrl(System.getenv("FIREBASE_DATABASE_URL"))
+                .build();
+        FirebaseApp.initializeApp(options);
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        DatabaseReference geofences = database.getReference("/geofences");
+        DatabaseReference users = database.getReference("/users");
+
+        ZoneChangeLog changeLog = new ZoneChangeLog(database.getReference());
+        try {
+            changeLog.load();
+            GeofenceKeyMigration.run(geofences);
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted loading geofence state", e);
+        }
+        GeofenceWriter writer = new GeofenceWriter(geofences, changeLog);
+        ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor();
+        maintenance.scheduleWithFixedDelay(() -> compact(changeLog), 1, COMPACT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+
+        PushOutbox outbox = new PushOutbox(new File(env("OUTBOX_FILE", "outbox.log")));
+        PushDispatcher dispatcher = new PushDispatcher(FirebaseMessaging.getInstance(), outbox, users);
+        dispatcher.start();
+
+        int port = Integer.parseInt(env("PORT", "8080"));
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/addgeofences", new GeofenceIngestHandler(writer));
+        server.createContext("/removegeofences", new GeofenceRemoveHandler(writer));
+        server.createContext("/editgeofence", new GeofenceEditHandler(writer));
+        server.createContext("/zonechanges", new ZoneChangesHandler(geofences, changeLog));
+        server.createContext("/triggernotification", new TriggerHandler(geofences, users, dispatcher));
+        server.createContext("/broadcastalert", new BroadcastHandler(geofences, dispatcher));
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        LOG.info("Listening on " + port);
+    }
+
+    private static void compact(ZoneChangeLog changeLog) {
+        try {
+            int deleted = changeLog.compact();
+            if (deleted > 0) {
+                LOG.info("Compacted " + deleted + " zone changes");
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Zone change compaction failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static String env(String name, String fallback) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : fallback;
+    }
+}
@@ -0,0 +1,201 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sends a hazard alert (say a fresh accident) for one or more zones to every driver near them.
+ * <p>
+ * Takes {@code geofence_ids} (or a single {@code geofence_id}) and optional {@code title} and
+ * {@code body} in a JSON body. Each zone goes to the geohash tiles its circle overlaps, zones are
+ * grouped by tile and each tile gets a single topic send, instead of looking up and messaging every
+ * user's token.
+ */
+public class BroadcastHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(BroadcastHandler.class.getName());
+
+    private static final int MAX_ZONES = 500;
+    private static final long LOOKUP_TIMEOUT_SECONDS = 10;
+
+    private static final class Zone {
+        final String geofenceId;
+        final String title;
+        final String message;
+        final Set<String> topics;
+
+        Zone(String geofenceId, String title, String message, Set<String> topics) {
+            this.geofenceId = geofenceId;
+            this.title = title;
+            this.message = message;
+            this.topics = topics;
+        }
+    }
+
+    private final DatabaseReference geofences;
+    private final PushDispatcher dispatcher;
+
+    public BroadcastHandler(DatabaseReference geofences, PushDispatcher dispatcher) {
+        this.geofences = geofences;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            JsonObject request;
+            try {
+                request = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                Responses.message(exchange, 400, "Body must be a JSON object");
+                return;
+            }
+            Set<String> ids = new LinkedHashSet<>();
+            String title;
+            String body;
+            try {
+                JsonElement single = request.get("geofence_id");
+                if (single != null && !single.isJsonNull()) {
+                    ids.add(GeofenceBatchParser.id(single));
+                }
+                JsonElement many = request.get("geofence_ids");
+                if (many != null && !many.isJsonNull()) {
+                    if (!many.isJsonArray()) {
+                        throw new IllegalArgumentException("geofence_ids must be an array");
+                    }
+                    for (JsonElement id : many.getAsJsonArray()) {
+                        ids.add(GeofenceBatchParser.id(id));
+                    }
+                }
+                title = string(request, "title");
+                body = string(request, "body");
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad request: " + e.getMessage());
+                return;
+            }
+            if (ids.isEmpty()) {
+                Responses.message(exchange, 400, "geofence_id or geofence_ids is required");
+                return;
+            }
+            if (ids.size() > MAX_ZONES) {
+                Responses.message(exchange, 400, "At most " + MAX_ZONES + " zones per broadcast");
+                return;
+            }
+
+            Map<String, Zone> found;
+            try {
+                found = lookup(ids);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Responses.message(exchange, 503, "Interrupted");
+                return;
+            }
+
+            Map<String, List<Zone>> byTopic = new LinkedHashMap<>();
+            JsonArray missing = new JsonArray();
+            for (String id : ids) {
+                Zone zone = found.get(id);
+                if (zone == null) {
+                    missing.add(id);
+                    continue;
+                }
+                for (String topic : zone.topics) {
+                    byTopic.computeIfAbsent(topic, key -> new ArrayList<>()).add(zone);
+                }
+            }
+
+            JsonArray topics = new JsonArray();
+            for (Map.Entry<String, List<Zone>> entry : byTopic.entrySet()) {
+                List<Zone> zones = entry.getValue();
+                List<String> zoneIds = new ArrayList<>(zones.size());
+                List<String> zoneTitles = new ArrayList<>(zones.size());
+                for (Zone zone : zones) {
+                    zoneIds.add(zone.geofenceId);
+                    zoneTitles.add(zone.title);
+                }
+                String tileTitle = title != null ? title : zones.size() == 1 ? zones.get(0).title : "Accidents reported nearby";
+                String tileBody = body != null ? body : zones.size() == 1 ? zones.get(0).message : String.join(", ", zoneTitles);
+                dispatcher.broadcast(entry.getKey(), tileTitle, tileBody, zoneIds);
+                topics.add(entry.getKey());
+            }
+
+            JsonObject response = new JsonObject();
+            response.addProperty("zones", ids.size() - missing.size());
+            response.add("topics", topics);
+            response.add("missing", missing);
+            Responses.json(exchange, 200, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Map<String, Zone> lookup(Set<String> ids) throws InterruptedException {
+        final Map<String, Zone> found = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(ids.size());
+        for (final String id : ids) {
+            // Geofences are keyed by geofence_id, a direct read needs no index.
+            geofences.child(id).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(DataSnapshot geofence) {
+                    Double lat = geofence.child("lat").getValue(Double.class);
+                    Double lng = geofence.child("lng").getValue(Double.class);
+                    Double radius = geofence.child("radius").getValue(Double.class);
+                    if (lat != null && lng != null) {
+                        found.put(id, new Zone(id, geofence.child("gtitle").getValue(String.class), geofence.child("gmessage").getValue(String.class),
+                                ZoneTiles.topicsFor(lat, lng, radius != null ? radius : 0)));
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    LOG.warning("Geofence lookup failed: " + error.getMessage());
+                    done.countDown();
+                }
+            });
+        }
+        if (!done.await(LOOKUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warning("Geofence lookups timed out, broadcasting to what was found");
+        }
+        return Collections.unmodifiableMap(new LinkedHashMap<>(found));
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonPrimitive()) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return element.getAsString();
+    }
+}
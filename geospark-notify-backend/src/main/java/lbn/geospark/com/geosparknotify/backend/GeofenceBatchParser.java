@@ -0,0 +1,323 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Turns an NDJSON or CSV batch into validated {@link GeofenceRecord}s.
+ * <p>
+ * Lines are parsed and validated in parallel; duplicates are resolved afterwards in input order,
+ * so the first occurrence of a geofence_id wins and later ones are reported as rejected.
+ * CSV input needs a header row naming the columns (geofence_id, gtitle, gmessage, lat, lng, radius,
+ * and optionally severity and schedule).
+ */
+public final class GeofenceBatchParser {
+
+    static final double MIN_RADIUS = 10;
+    static final double MAX_RADIUS = 100000;
+    static final int MAX_ID_LENGTH = 128;
+    static final int MIN_SEVERITY = 1;
+    static final int MAX_SEVERITY = 3;
+    static final int DEFAULT_SEVERITY = MAX_SEVERITY;
+
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    public static final class Rejection {
+        final int line;
+        final String reason;
+
+        Rejection(int line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    public static final class Result {
+        final List<GeofenceRecord> records;
+        final List<Rejection> rejections;
+
+        Result(List<GeofenceRecord> records, List<Rejection> rejections) {
+            this.records = records;
+            this.rejections = rejections;
+        }
+    }
+
+    private static final class Parsed {
+        final int line;
+        final GeofenceRecord record;
+        final String error;
+
+        Parsed(int line, GeofenceRecord record, String error) {
+            this.line = line;
+            this.record = record;
+            this.error = error;
+        }
+    }
+
+    private static final Pattern SCHEDULE_WINDOW = Pattern.compile("\\d{1,3}:\\d{4}-\\d{4}");
+
+    private GeofenceBatchParser() {
+    }
+
+    public static Result parse(Format format, List<String> lines) {
+        final Map<String, Integer> columns;
+        final int first;
+        if (format == Format.CSV) {
+            if (lines.isEmpty()) {
+                return new Result(new ArrayList<GeofenceRecord>(), new ArrayList<Rejection>());
+            }
+            columns = csvHeader(lines.get(0));
+            first = 1;
+        } else {
+            columns = null;
+            first = 0;
+        }
+
+        List<Parsed> parsed = IntStream.range(first, lines.size())
+                .parallel()
+                .filter(i -> !lines.get(i).trim().isEmpty())
+                .mapToObj(i -> parseLine(format, columns, i + 1, lines.get(i)))
+                .collect(Collectors.toList());
+
+        List<GeofenceRecord> records = new ArrayList<>(parsed.size());
+        List<Rejection> rejections = new ArrayList<>();
+        Set<String> seen = new HashSet<>(parsed.size() * 2);
+        for (Parsed p : parsed) {
+            if (p.error != null) {
+                rejections.add(new Rejection(p.line, p.error));
+            } else if (!seen.add(p.record.geofenceId)) {
+                rejections.add(new Rejection(p.line, "duplicate geofence_id " + p.record.geofenceId));
+            } else {
+                records.add(p.record);
+            }
+        }
+        return new Result(records, rejections);
+    }
+
+    private static Parsed parseLine(Format format, Map<String, Integer> columns, int line, String text) {
+        try {
+            String id;
+            String title;
+            String message;
+            String lat;
+            String lng;
+            String radius;
+            String severity;
+            String schedule;
+            if (format == Format.CSV) {
+                List<String> fields = splitCsv(text);
+                id = field(fields, columns, "geofence_id");
+                title = field(fields, columns, "gtitle");
+                message = field(fields, columns, "gmessage");
+                lat = field(fields, columns, "lat");
+                lng = field(fields, columns, "lng");
+                radius = field(fields, columns, "radius");
+                severity = field(fields, columns, "severity");
+                schedule = field(fields, columns, "schedule");
+            } else {
+                JsonObject object = JsonParser.parseString(text).getAsJsonObject();
+                id = string(object, "geofence_id");
+                title = string(object, "gtitle");
+                message = string(object, "gmessage");
+                lat = string(object, "lat");
+                lng = string(object, "lng");
+                radius = string(object, "radius");
+                severity = string(object, "severity");
+                schedule = string(object, "schedule");
+            }
+            return new Parsed(line, validate(id, title, message, lat, lng, radius, severity, schedule), null);
+        } catch (JsonParseException e) {
+            return new Parsed(line, null, "malformed JSON");
+        } catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException e) {
+            return new Parsed(line, null, e.getMessage());
+        }
+    }
+
+    static GeofenceRecord validate(String id, String title, String message, String lat, String lng, String radius,
+                                   String severity, String schedule) {
+        checkId(id);
+        if (title == null || title.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing gtitle");
+        }
+        double latitude = number(lat, "lat");
+        double longitude = number(lng, "lng");
+        double r = number(radius, "radius");
+        if (latitude < -90 || latitude > 90) {
+            throw new IllegalArgumentException("lat out of range");
+        }
+        if (longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("lng out of range");
+        }
+        if (r < MIN_RADIUS || r > MAX_RADIUS) {
+            throw new IllegalArgumentException("radius must be between " + (int) MIN_RADIUS + " and " + (int) MAX_RADIUS + " m");
+        }
+        int level = DEFAULT_SEVERITY;
+        if (severity != null && !severity.isEmpty()) {
+            try {
+                level = Integer.parseInt(severity);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("severity is not a number");
+            }
+            if (level < MIN_SEVERITY || level > MAX_SEVERITY) {
+                throw new IllegalArgumentException("severity must be between " + MIN_SEVERITY + " and " + MAX_SEVERITY);
+            }
+        }
+        if (schedule != null && schedule.trim().isEmpty()) {
+            schedule = null;
+        }
+        if (schedule != null) {
+            checkSchedule(schedule);
+        }
+        return new GeofenceRecord(id, title, message != null ? message : "", latitude, longitude, r, level, schedule);
+    }
+
+    /**
+     * Same format the app's ZoneSchedule reads: {@code <days>:<HHmm>-<HHmm>} windows separated by
+     * {@code ;}, days being a bit mask with Sunday = 1 ... Saturday = 64.
+     */
+    static void checkSchedule(String schedule) {
+        int windows = 0;
+        for (String window : schedule.split(";")) {
+            window = window.trim();
+            if (window.isEmpty()) {
+                continue;
+            }
+            if (!SCHEDULE_WINDOW.matcher(window).matches()) {
+                throw new IllegalArgumentException("bad schedule window " + window);
+            }
+            int colon = window.indexOf(':');
+            int days = Integer.parseInt(window.substring(0, colon));
+            if (days < 1 || days > 127) {
+                throw new IllegalArgumentException("schedule days must be between 1 and 127");
+            }
+            checkTime(window.substring(colon + 1, colon + 5));
+            checkTime(window.substring(colon + 6));
+            windows++;
+        }
+        if (windows == 0) {
+            throw new IllegalArgumentException("schedule has no windows");
+        }
+    }
+
+    private static void checkTime(String hhmm) {
+        int hours = Integer.parseInt(hhmm.substring(0, 2));
+        int minutes = Integer.parseInt(hhmm.substring(2));
+        if (hours > 24 || minutes > 59 || (hours == 24 && minutes > 0)) {
+            throw new IllegalArgumentException("bad schedule time " + hhmm);
+        }
+    }
+
+    static void checkId(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("missing geofence_id");
+        }
+        if (id.length() > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("geofence_id longer than " + MAX_ID_LENGTH);
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            // Not allowed in realtime database keys.
+            if (c < 0x20 || c == 0x7F || c == '.' || c == '$' || c == '#' || c == '[' || c == ']' || c == '/') {
+                throw new IllegalArgumentException("geofence_id contains '" + c + "'");
+            }
+        }
+    }
+
+    /**
+     * Reads a geofence id sent as a JSON value: it has to be a string and a valid key.
+     */
+    static String id(JsonElement element) {
+        if (element == null || !element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString()) {
+            throw new IllegalArgumentException("geofence_id must be a string");
+        }
+        String id = element.getAsString();
+        checkId(id);
+        return id;
+    }
+
+    private static double number(String value, String name) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + name);
+        }
+        double d;
+        try {
+            d = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number");
+        }
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new IllegalArgumentException(name + " is not a number");
+        }
+        return d;
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static Map<String, Integer> csvHeader(String header) {
+        List<String> names = splitCsv(header);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(), i);
+        }
+        return columns;
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        return fields.get(index).trim();
+    }
+
+    // RFC 4180 style: comma separated, optional double quotes, "" inside quotes is a quote.
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,98 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Changes the text of one geofence: POST {@code {"geofence_id", "gtitle", "gmessage"}}, as sent by
+ * the {@code addgeofence} Cloud Function. The edit goes through the {@link ZoneChangeLog} like any
+ * other write, so synced devices pick up the new text. Location and schedule only change through
+ * {@code /addgeofences}.
+ */
+public class GeofenceEditHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceEditHandler.class.getName());
+
+    private final GeofenceWriter writer;
+
+    public GeofenceEditHandler(GeofenceWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            JsonObject request;
+            try {
+                request = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                Responses.message(exchange, 400, "Body must be a JSON object");
+                return;
+            }
+            String id;
+            String title;
+            String message;
+            try {
+                id = GeofenceBatchParser.id(request.get("geofence_id"));
+                title = string(request, "gtitle");
+                message = string(request, "gmessage");
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad request: " + e.getMessage());
+                return;
+            }
+            if (title == null && message == null) {
+                Responses.message(exchange, 400, "gtitle or gmessage is required");
+                return;
+            }
+
+            GeofenceWriter.WriteResult written;
+            try {
+                written = writer.updateText(id, title, message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Responses.message(exchange, 503, "Interrupted");
+                return;
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Geofence lookup failed", e);
+                Responses.message(exchange, 503, "Try again later");
+                return;
+            }
+            if (written == null) {
+                Responses.message(exchange, 404, "No geofence with a location under " + id + ", load it through /addgeofences");
+                return;
+            }
+            if (written.failed > 0) {
+                Responses.message(exchange, 500, "Geofence could not be written, retry the request");
+                return;
+            }
+            Responses.message(exchange, 200, "Geofence updated");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonPrimitive()) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return element.getAsString();
+    }
+}
@@ -0,0 +1,157 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Bulk replacement for the one-geofence-per-request {@code addgeofence} function.
+ * <p>
+ * POST a batch as NDJSON (one geofence object per line) or as CSV with a header row
+ * ({@code Content-Type: text/csv}). Valid rows are upserted by geofence_id, invalid and duplicate
+ * rows are reported back with their line numbers. Bodies over {@link #MAX_BODY_BYTES} are refused
+ * with 413.
+ */
+public class GeofenceIngestHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceIngestHandler.class.getName());
+
+    private static final int MAX_REPORTED_REJECTIONS = 100;
+    // The whole batch is held in memory while it is parsed, larger loads have to be split.
+    static final long MAX_BODY_BYTES = 32L * 1024 * 1024;
+
+    private final GeofenceWriter writer;
+
+    public GeofenceIngestHandler(GeofenceWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            GeofenceBatchParser.Format format = contentType != null && contentType.toLowerCase().contains("csv")
+                    ? GeofenceBatchParser.Format.CSV
+                    : GeofenceBatchParser.Format.NDJSON;
+
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && parseLength(length) > MAX_BODY_BYTES) {
+                Responses.message(exchange, 413, "Batch larger than " + MAX_BODY_BYTES + " bytes, split it");
+                return;
+            }
+            List<String> lines = new ArrayList<>();
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new LimitedInputStream(exchange.getRequestBody(), MAX_BODY_BYTES), StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (BodyTooLargeException e) {
+                Responses.message(exchange, 413, "Batch larger than " + MAX_BODY_BYTES + " bytes, split it");
+                return;
+            }
+
+            GeofenceBatchParser.Result result;
+            try {
+                result = GeofenceBatchParser.parse(format, lines);
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad batch: " + e.getMessage());
+                return;
+            }
+
+            GeofenceWriter.WriteResult written;
+            try {
+                written = writer.upsert(result.records);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Responses.message(exchange, 503, "Interrupted");
+                return;
+            }
+            LOG.info("Ingested " + written.written + " geofences, " + result.rejections.size() + " rejected, " + written.failed + " failed");
+
+            JsonObject body = new JsonObject();
+            body.addProperty("message", written.failed == 0 ? "Geofences ingested" : "Some geofences could not be written, retry the batch");
+            body.addProperty("written", written.written);
+            body.addProperty("failed", written.failed);
+            body.addProperty("rejected", result.rejections.size());
+            JsonArray errors = new JsonArray();
+            for (GeofenceBatchParser.Rejection rejection : result.rejections) {
+                if (errors.size() == MAX_REPORTED_REJECTIONS) {
+                    break;
+                }
+                JsonObject error = new JsonObject();
+                error.addProperty("line", rejection.line);
+                error.addProperty("reason", rejection.reason);
+                errors.add(error);
+            }
+            body.add("errors", errors);
+            Responses.json(exchange, written.failed == 0 ? 200 : 500, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // Chunked uploads carry no Content-Length, so the limit is also enforced while reading.
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws BodyTooLargeException {
+            remaining -= n;
+            if (remaining < 0) {
+                throw new BodyTooLargeException();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Moves geofences written by the old {@code addgeofence} function, which pushed them under generated
+ * keys, to {@code /geofences/<geofence_id>}.
+ * <p>
+ * A legacy record is dropped when a keyed record with the same geofence_id already exists, otherwise
+ * it is moved there, the newest one winning if the id was pushed more than once. The move and the
+ * delete of the old key are one atomic update. The zone a device knows by geofence_id does not change,
+ * so nothing is added to the {@link ZoneChangeLog}.
+ * <p>
+ * Push keys start with '-' (their leading timestamp digit stays 0 until 2109), so only that key range
+ * is read and the check is cheap enough to run on every start.
+ */
+final class GeofenceKeyMigration {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceKeyMigration.class.getName());
+
+    private static final String PUSH_KEY_PREFIX = "-";
+
+    private GeofenceKeyMigration() {
+    }
+
+    /**
+     * Returns the number of legacy keys removed.
+     */
+    static int run(DatabaseReference geofences) throws IOException, InterruptedException {
+        DataSnapshot candidates = ZoneChangeLog.read(geofences.orderByKey()
+                .startAt(PUSH_KEY_PREFIX).endAt(PUSH_KEY_PREFIX + "\uf8ff"));
+
+        // Push keys sort by creation time, so the last one seen per id is the newest.
+        Map<String, DataSnapshot> newest = new LinkedHashMap<>();
+        List<String> superseded = new ArrayList<>();
+        for (DataSnapshot child : candidates.getChildren()) {
+            Object id = child.child("geofence_id").getValue();
+            if (child.getKey().equals(id)) {
+                continue;
+            }
+            if (!(id instanceof String)) {
+                LOG.warning("Legacy geofence " + child.getKey() + " has no geofence_id, left in place");
+                continue;
+            }
+            try {
+                GeofenceBatchParser.checkId((String) id);
+            } catch (IllegalArgumentException e) {
+                LOG.warning("Legacy geofence " + child.getKey() + ": " + e.getMessage() + ", left in place");
+                continue;
+            }
+            DataSnapshot previous = newest.put((String) id, child);
+            if (previous != null) {
+                superseded.add(previous.getKey());
+            }
+        }
+        if (newest.isEmpty()) {
+            return 0;
+        }
+
+        int removed = 0;
+        int moved = 0;
+        Map<String, Object> update = new HashMap<>();
+        for (Map.Entry<String, DataSnapshot> entry : newest.entrySet()) {
+            String id = entry.getKey();
+            if (!ZoneChangeLog.read(geofences.child(id)).exists()) {
+                update.put(id, entry.getValue().getValue());
+                moved++;
+            }
+            update.put(entry.getValue().getKey(), null);
+            removed++;
+            if (update.size() >= GeofenceWriter.CHUNK_SIZE) {
+                apply(geofences, update);
+            }
+        }
+        for (String key : superseded) {
+            update.put(key, null);
+            removed++;
+            if (update.size() >= GeofenceWriter.CHUNK_SIZE) {
+                apply(geofences, update);
+            }
+        }
+        apply(geofences, update);
+        LOG.info("Re-keyed " + moved + " legacy geofences, removed " + removed + " legacy keys");
+        return removed;
+    }
+
+    private static void apply(DatabaseReference geofences, Map<String, Object> update) throws IOException, InterruptedException {
+        if (update.isEmpty()) {
+            return;
+        }
+        try {
+            geofences.updateChildrenAsync(update).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not re-key legacy geofences", e.getCause());
+        }
+        update.clear();
+    }
+}
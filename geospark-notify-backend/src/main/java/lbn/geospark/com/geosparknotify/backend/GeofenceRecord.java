@@ -0,0 +1,55 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import java.util.Map;
+
+/**
+ * One geofence as stored under {@code /geofences/<geofence_id>}.
+ * Field names match what {@code triggernotification} in functions/index.js reads.
+ */
+public final class GeofenceRecord {
+
+    final String geofenceId;
+    final String title;
+    final String message;
+    final double latitude;
+    final double longitude;
+    final double radius;
+    // 1 (low) to 3 (high), ranks zones on the device when more are active than it can watch.
+    final int severity;
+    // Weekly activity windows, "<days>:<HHmm>-<HHmm>;...", null when always active.
+    final String schedule;
+
+    GeofenceRecord(String geofenceId, String title, String message, double latitude, double longitude, double radius,
+                   int severity, String schedule) {
+        this.geofenceId = geofenceId;
+        this.title = title;
+        this.message = message;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.severity = severity;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Adds this record as multi-path update entries under {@code parent/<geofence_id>}.
+     */
+    void putPaths(String parent, Map<String, Object> update) {
+        putFields(parent + geofenceId + "/", update);
+    }
+
+    /**
+     * Adds the record's fields as multi-path update entries directly under {@code prefix}.
+     */
+    void putFields(String prefix, Map<String, Object> update) {
+        update.put(prefix + "geofence_id", geofenceId);
+        update.put(prefix + "gtitle", title);
+        update.put(prefix + "gmessage", message);
+        update.put(prefix + "lat", latitude);
+        update.put(prefix + "lng", longitude);
+        update.put(prefix + "radius", radius);
+        update.put(prefix + "severity", severity);
+        // A null clears a schedule left from an earlier write.
+        update.put(prefix + "schedule", schedule);
+    }
+}
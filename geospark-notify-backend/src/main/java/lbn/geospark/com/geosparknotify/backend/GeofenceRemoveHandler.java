@@ -0,0 +1,80 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Deletes geofences by id: POST {@code {"geofence_ids": [...]}}. Deletes go through the
+ * {@link ZoneChangeLog} like upserts, so devices drop the zones on their next sync.
+ */
+public class GeofenceRemoveHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceRemoveHandler.class.getName());
+
+    private final GeofenceWriter writer;
+
+    public GeofenceRemoveHandler(GeofenceWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            JsonElement many;
+            try {
+                JsonObject request = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+                many = request.get("geofence_ids");
+            } catch (JsonParseException | IllegalStateException e) {
+                Responses.message(exchange, 400, "Body must be a JSON object with geofence_ids");
+                return;
+            }
+            if (many == null || !many.isJsonArray() || many.getAsJsonArray().size() == 0) {
+                Responses.message(exchange, 400, "geofence_ids is required");
+                return;
+            }
+            Set<String> ids = new LinkedHashSet<>();
+            try {
+                for (JsonElement id : many.getAsJsonArray()) {
+                    ids.add(GeofenceBatchParser.id(id));
+                }
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad request: " + e.getMessage());
+                return;
+            }
+
+            GeofenceWriter.WriteResult written;
+            try {
+                written = writer.delete(new ArrayList<>(ids));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Responses.message(exchange, 503, "Interrupted");
+                return;
+            }
+            LOG.info("Removed " + written.written + " geofences, " + written.failed + " failed");
+
+            JsonObject body = new JsonObject();
+            body.addProperty("message", written.failed == 0 ? "Geofences removed" : "Some geofences could not be removed, retry the request");
+            body.addProperty("removed", written.written);
+            body.addProperty("failed", written.failed);
+            Responses.json(exchange, written.failed == 0 ? 200 : 500, body);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.api.core.ApiFuture;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Upserts and deletes geofences under {@code /geofences/<geofence_id>} with chunked multi-path updates.
+ * <p>
+ * Keying by geofence_id makes a write idempotent: re-sending a batch overwrites the same children
+ * instead of pushing duplicates. Each chunk is one atomic update that also appends its entries to
+ * the {@link ZoneChangeLog}; a few chunks are kept in flight at once to hide round trip latency.
+ */
+public class GeofenceWriter {
+
+    private static final Logger LOG = Logger.getLogger(GeofenceWriter.class.getName());
+
+    static final int CHUNK_SIZE = 500;
+    private static final int MAX_IN_FLIGHT = 4;
+
+    public static final class WriteResult {
+        final int written;
+        final int failed;
+
+        WriteResult(int written, int failed) {
+            this.written = written;
+            this.failed = failed;
+        }
+    }
+
+    // Adds the multi-path entries for the change at index, logged under version.
+    private interface ChangeWriter {
+        void put(int index, long version, Map<String, Object> update);
+    }
+
+    private final DatabaseReference geofences;
+    private final ZoneChangeLog changeLog;
+
+    public GeofenceWriter(DatabaseReference geofences, ZoneChangeLog changeLog) {
+        this.geofences = geofences;
+        this.changeLog = changeLog;
+    }
+
+    public WriteResult upsert(final List<GeofenceRecord> records) throws InterruptedException {
+        final String parent = geofences.getKey() + "/";
+        return write(records.size(), (index, version, update) -> {
+            GeofenceRecord record = records.get(index);
+            record.putPaths(parent, update);
+            ZoneChangeLog.putUpsert(update, version, record);
+        });
+    }
+
+    public WriteResult delete(final List<String> geofenceIds) throws InterruptedException {
+        final String parent = geofences.getKey() + "/";
+        return write(geofenceIds.size(), (index, version, update) -> {
+            String geofenceId = geofenceIds.get(index);
+            update.put(parent + geofenceId, null);
+            ZoneChangeLog.putDelete(update, version, geofenceId);
+        });
+    }
+
+    /**
+     * Replaces the title and message of a stored geofence, keeping its location, severity and
+     * schedule. A null title or message keeps the stored one. The record is read under the change
+     * log lock, so a concurrent upsert of the same zone cannot be undone with stale fields.
+     *
+     * @return the write result, or null when no geofence with a location is stored under the id
+     */
+    public WriteResult updateText(String geofenceId, String title, String message) throws IOException, InterruptedException {
+        changeLog.writeLock.lockInterruptibly();
+        try {
+            DataSnapshot stored = ZoneChangeLog.read(geofences.child(geofenceId));
+            Double latitude = stored.child("lat").getValue(Double.class);
+            Double longitude = stored.child("lng").getValue(Double.class);
+            Double radius = stored.child("radius").getValue(Double.class);
+            if (latitude == null || longitude == null || radius == null) {
+                return null;
+            }
+            Integer severity = stored.child("severity").getValue(Integer.class);
+            String storedMessage = stored.child("gmessage").getValue(String.class);
+            GeofenceRecord record = new GeofenceRecord(geofenceId,
+                    title != null ? title : stored.child("gtitle").getValue(String.class),
+                    message != null ? message : storedMessage != null ? storedMessage : "",
+                    latitude, longitude, radius,
+                    severity != null ? severity : GeofenceBatchParser.DEFAULT_SEVERITY,
+                    stored.child("schedule").getValue(String.class));
+            // The lock is reentrant, upsert takes it again.
+            return upsert(Collections.singletonList(record));
+        } finally {
+            changeLog.writeLock.unlock();
+        }
+    }
+
+    private WriteResult write(int count, ChangeWriter changes) throws InterruptedException {
+        if (count == 0) {
+            return new WriteResult(0, 0);
+        }
+        DatabaseReference root = changeLog.getRoot();
+        changeLog.writeLock.lockInterruptibly();
+        try {
+            long firstVersion = changeLog.reserve(count);
+            final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+            List<ApiFuture<Void>> futures = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            for (int start = 0; start < count; start += CHUNK_SIZE) {
+                int end = Math.min(count, start + CHUNK_SIZE);
+                Map<String, Object> update = new HashMap<>((end - start) * 16);
+                for (int i = start; i < end; i++) {
+                    changes.put(i, firstVersion + i, update);
+                }
+                inFlight.acquire();
+                ApiFuture<Void> future = root.updateChildrenAsync(update);
+                future.addListener(inFlight::release, Runnable::run);
+                futures.add(future);
+                sizes.add(end - start);
+            }
+
+            int written = 0;
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    written += sizes.get(i);
+                } catch (ExecutionException e) {
+                    LOG.log(Level.WARNING, "Geofence chunk " + i + " failed", e.getCause());
+                    failed += sizes.get(i);
+                }
+            }
+            try {
+                changeLog.publish(firstVersion + count - 1);
+            } catch (ExecutionException e) {
+                // Devices will catch up with the next batch that publishes.
+                LOG.log(Level.WARNING, "Could not publish zone version", e.getCause());
+            }
+            return new WriteResult(written, failed);
+        } finally {
+            changeLog.writeLock.unlock();
+        }
+    }
+}
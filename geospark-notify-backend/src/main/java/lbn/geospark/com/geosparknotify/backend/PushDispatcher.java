@@ -0,0 +1,214 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.messaging.FirebaseMessaging;
+import com.google.firebase.messaging.FirebaseMessagingException;
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.Notification;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends safety alerts and makes sure a failed one is not simply lost.
+ * <p>
+ * Fresh alerts go straight to FCM with {@code sendAsync}; only when that fails is the push written
+ * to the {@link PushOutbox} and handed to a separate retry thread, which backs off exponentially
+ * with jitter. Pushes to tokens FCM no longer knows are dropped and the token is removed from the
+ * user. Pending pushes are expired once the driver has left the zone or the alert is too old to matter.
+ */
+public class PushDispatcher {
+
+    private static final Logger LOG = Logger.getLogger(PushDispatcher.class.getName());
+
+    static final int MAX_ATTEMPTS = 8;
+    static final long BASE_DELAY_MS = 2000;
+    static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+    static final long ALERT_TTL_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final String ERROR_UNREGISTERED = "registration-token-not-registered";
+    private static final String ERROR_INVALID_ARGUMENT = "invalid-argument";
+    private static final String ERROR_MISMATCHED_CREDENTIAL = "mismatched-credential";
+
+    private final FirebaseMessaging messaging;
+    private final PushOutbox outbox;
+    private final DatabaseReference users;
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "push-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PushDispatcher(FirebaseMessaging messaging, PushOutbox outbox, DatabaseReference users) {
+        this.messaging = messaging;
+        this.outbox = outbox;
+        this.users = users;
+    }
+
+    /**
+     * Picks up the pushes left pending by a previous run.
+     */
+    public void start() {
+        long now = System.currentTimeMillis();
+        for (PushRequest request : outbox.pending()) {
+            schedule(request, Math.max(0, request.nextAttemptAt - now));
+        }
+    }
+
+    public void send(String userId, String geofenceId, String deviceToken, String title, String body) {
+        PushRequest request = new PushRequest(UUID.randomUUID().toString(), userId, geofenceId, deviceToken, title, body, System.currentTimeMillis());
+        deliver(request, true);
+    }
+
+    /**
+     * Drops pending pushes for a zone the user has left, they would only be noise now.
+     */
+    public void expire(String userId, String geofenceId) {
+        for (PushRequest request : outbox.pendingFor(userId, geofenceId)) {
+            outbox.finish(request, "left-zone");
+        }
+    }
+
+    /**
+     * Sends one alert to a zone tile topic. Topic sends are not written to the outbox: they are
+     * retried in memory with the same backoff and dropped once the alert is stale.
+     */
+    public void broadcast(String topic, String title, String body, List<String> geofenceIds) {
+        Message message = Message.builder()
+                .setNotification(Notification.builder()
+                        .setTitle(title)
+                        .setBody(body)
+                        .build())
+                .putData("geofence_ids", String.join(",", geofenceIds))
+                .setTopic(topic)
+                .build();
+        broadcast(message, topic, 0, System.currentTimeMillis());
+    }
+
+    public void shutdown() {
+        retryExecutor.shutdownNow();
+    }
+
+    private void deliver(final PushRequest request, final boolean fresh) {
+        ApiFutures.addCallback(messaging.sendAsync(request.toMessage()), new ApiFutureCallback<String>() {
+            @Override
+            public void onSuccess(String messageId) {
+                LOG.fine("Sent " + messageId);
+                if (!fresh) {
+                    outbox.finish(request, "delivered");
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                handleFailure(request, fresh, t);
+            }
+        }, retryExecutor);
+    }
+
+    private void broadcast(final Message message, final String topic, final int attempts, final long createdAt) {
+        ApiFutures.addCallback(messaging.sendAsync(message), new ApiFutureCallback<String>() {
+            @Override
+            public void onSuccess(String messageId) {
+                LOG.fine("Broadcast " + messageId + " to " + topic);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                String code = t instanceof FirebaseMessagingException ? ((FirebaseMessagingException) t).getErrorCode() : null;
+                int attempt = attempts + 1;
+                if (ERROR_INVALID_ARGUMENT.equals(code) || ERROR_MISMATCHED_CREDENTIAL.equals(code)
+                        || attempt >= MAX_ATTEMPTS || System.currentTimeMillis() - createdAt > ALERT_TTL_MS) {
+                    LOG.log(Level.WARNING, "Giving up on broadcast to " + topic + " after " + attempt + " attempts", t);
+                    return;
+                }
+                retryExecutor.schedule(() -> broadcast(message, topic, attempt, createdAt), backoff(attempt), TimeUnit.MILLISECONDS);
+            }
+        }, retryExecutor);
+    }
+
+    private void handleFailure(PushRequest request, boolean fresh, Throwable t) {
+        String code = t instanceof FirebaseMessagingException ? ((FirebaseMessagingException) t).getErrorCode() : null;
+        if (ERROR_UNREGISTERED.equals(code)) {
+            LOG.info("Dropping dead token for user " + request.userId);
+            pruneToken(request.deviceToken);
+            end(request, fresh, "dead-token");
+            return;
+        }
+        if (ERROR_INVALID_ARGUMENT.equals(code) || ERROR_MISMATCHED_CREDENTIAL.equals(code)) {
+            LOG.log(Level.WARNING, "Push " + request.id + " rejected by FCM", t);
+            end(request, fresh, "rejected");
+            return;
+        }
+
+        request.attempts++;
+        long now = System.currentTimeMillis();
+        if (request.attempts >= MAX_ATTEMPTS || now - request.createdAt > ALERT_TTL_MS) {
+            LOG.log(Level.WARNING, "Giving up on push " + request.id + " after " + request.attempts + " attempts", t);
+            end(request, fresh, "gave-up");
+            return;
+        }
+        long delay = backoff(request.attempts);
+        request.nextAttemptAt = now + delay;
+        if (fresh) {
+            outbox.add(request);
+        } else {
+            outbox.retryLater(request);
+        }
+        schedule(request, delay);
+    }
+
+    private void end(PushRequest request, boolean fresh, String reason) {
+        if (!fresh) {
+            outbox.finish(request, reason);
+        }
+    }
+
+    private void schedule(final PushRequest request, long delayMs) {
+        retryExecutor.schedule(() -> retry(request), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void retry(PushRequest request) {
+        if (!outbox.isPending(request)) {
+            return;
+        }
+        if (System.currentTimeMillis() - request.createdAt > ALERT_TTL_MS) {
+            outbox.finish(request, "expired");
+            return;
+        }
+        deliver(request, false);
+    }
+
+    // Exponential backoff with jitter: uniformly between half and all of the capped delay.
+    static long backoff(int attempts) {
+        long cap = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempts - 1, 20));
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    private void pruneToken(String deviceToken) {
+        users.orderByChild("device_token").equalTo(deviceToken).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                for (DataSnapshot user : snapshot.getChildren()) {
+                    user.getRef().child("device_token").removeValueAsync();
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                LOG.warning("Could not prune token: " + error.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,211 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable list of pushes that still have to be delivered.
+ * <p>
+ * Every change is appended as one line to {@code outbox.log}: {@code ADD <json>} when a push fails,
+ * {@code TRY <id> <attempts> <nextAttemptAt>} after each failed retry and {@code END <id> <reason>}
+ * once it is delivered, expired or given up on. Replaying the log rebuilds the pending set after a
+ * restart. When finished entries dominate, the log is rewritten with only the pending pushes.
+ * <p>
+ * A crash can leave the last line half written. It is cut off before replaying, so the next append
+ * starts on a fresh line, and any other line that does not parse is skipped on its own.
+ */
+public class PushOutbox {
+
+    private static final Logger LOG = Logger.getLogger(PushOutbox.class.getName());
+
+    private static final String ADD = "ADD";
+    private static final String TRY = "TRY";
+    private static final String END = "END";
+    private static final int COMPACT_MIN_LINES = 1000;
+
+    private final Gson gson = new Gson();
+    private final File file;
+    private final Map<String, PushRequest> pending = new LinkedHashMap<>();
+    private Writer writer;
+    private int lines;
+
+    public PushOutbox(File file) throws IOException {
+        this.file = file;
+        truncateTornTail();
+        replay();
+        writer = open(true);
+    }
+
+    public synchronized void add(PushRequest request) {
+        pending.put(request.id, request);
+        append(ADD + "\t" + gson.toJson(request));
+    }
+
+    public synchronized void retryLater(PushRequest request) {
+        if (pending.containsKey(request.id)) {
+            append(TRY + "\t" + request.id + "\t" + request.attempts + "\t" + request.nextAttemptAt);
+        }
+    }
+
+    public synchronized void finish(PushRequest request, String reason) {
+        if (pending.remove(request.id) != null) {
+            append(END + "\t" + request.id + "\t" + reason);
+            maybeCompact();
+        }
+    }
+
+    public synchronized boolean isPending(PushRequest request) {
+        return pending.containsKey(request.id);
+    }
+
+    public synchronized List<PushRequest> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized List<PushRequest> pendingFor(String userId, String geofenceId) {
+        List<PushRequest> matches = new ArrayList<>();
+        for (PushRequest request : pending.values()) {
+            if (request.userId.equals(userId) && request.geofenceId.equals(geofenceId)) {
+                matches.add(request);
+            }
+        }
+        return matches;
+    }
+
+    private void append(String line) {
+        try {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+            lines++;
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not append to " + file, e);
+        }
+    }
+
+    private void truncateTornTail() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long end = length;
+            byte[] buffer = new byte[4096];
+            while (end > 0) {
+                int n = (int) Math.min(buffer.length, end);
+                raf.seek(end - n);
+                raf.readFully(buffer, 0, n);
+                int i = n - 1;
+                while (i >= 0 && buffer[i] != '\n') {
+                    i--;
+                }
+                if (i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+            if (end < length) {
+                LOG.warning("Dropping " + (length - end) + " bytes of a torn last line in " + file);
+                raf.setLength(end);
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                try {
+                    replayLine(line);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Skipping bad line " + lines + " of " + file, e);
+                }
+            }
+        }
+    }
+
+    private void replayLine(String line) {
+        String[] parts = line.split("\t", 2);
+        if (parts.length < 2) {
+            return;
+        }
+        switch (parts[0]) {
+            case ADD:
+                PushRequest request = gson.fromJson(parts[1], PushRequest.class);
+                if (request == null || request.id == null) {
+                    throw new IllegalArgumentException("ADD without a push");
+                }
+                pending.put(request.id, request);
+                break;
+            case TRY:
+                String[] fields = parts[1].split("\t");
+                PushRequest retried = pending.get(fields[0]);
+                if (retried != null && fields.length == 3) {
+                    int attempts = Integer.parseInt(fields[1]);
+                    long nextAttemptAt = Long.parseLong(fields[2]);
+                    retried.attempts = attempts;
+                    retried.nextAttemptAt = nextAttemptAt;
+                }
+                break;
+            case END:
+                pending.remove(parts[1].split("\t")[0]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void maybeCompact() {
+        if (lines < COMPACT_MIN_LINES || lines < pending.size() * 4) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (PushRequest request : pending.values()) {
+                    out.write(ADD + "\t" + gson.toJson(request) + "\n");
+                }
+            }
+            writer.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = pending.size();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not compact " + file, e);
+        }
+        try {
+            writer = open(true);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not reopen " + file, e);
+        }
+    }
+
+    private Writer open(boolean append) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8));
+    }
+}
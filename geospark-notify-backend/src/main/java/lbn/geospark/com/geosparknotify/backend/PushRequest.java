@@ -0,0 +1,40 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.messaging.Message;
+import com.google.firebase.messaging.Notification;
+
+/**
+ * A safety alert addressed to one device, as kept by the {@link PushOutbox}.
+ */
+public final class PushRequest {
+
+    final String id;
+    final String userId;
+    final String geofenceId;
+    final String deviceToken;
+    final String title;
+    final String body;
+    final long createdAt;
+    int attempts;
+    long nextAttemptAt;
+
+    PushRequest(String id, String userId, String geofenceId, String deviceToken, String title, String body, long createdAt) {
+        this.id = id;
+        this.userId = userId;
+        this.geofenceId = geofenceId;
+        this.deviceToken = deviceToken;
+        this.title = title;
+        this.body = body;
+        this.createdAt = createdAt;
+    }
+
+    Message toMessage() {
+        return Message.builder()
+                .setNotification(Notification.builder()
+                        .setTitle(title)
+                        .setBody(body)
+                        .build())
+                .setToken(deviceToken)
+                .build();
+    }
+}
@@ -0,0 +1,122 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Same contract as the {@code triggernotification} function: {@code geofence_id}, {@code event_type}
+ * and {@code user_id} (the GeoSpark token) in a JSON body. Entries send the zone's alert through the
+ * {@link PushDispatcher}, exits expire whatever is still pending for that zone.
+ */
+public class TriggerHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(TriggerHandler.class.getName());
+
+    private final DatabaseReference geofences;
+    private final DatabaseReference users;
+    private final PushDispatcher dispatcher;
+
+    public TriggerHandler(DatabaseReference geofences, DatabaseReference users, PushDispatcher dispatcher) {
+        this.geofences = geofences;
+        this.users = users;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            JsonObject request;
+            try {
+                request = JsonParser.parseReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (JsonParseException | IllegalStateException e) {
+                Responses.message(exchange, 400, "Body must be a JSON object");
+                return;
+            }
+            String geofenceId;
+            String eventType;
+            String userId;
+            try {
+                geofenceId = GeofenceBatchParser.id(request.get("geofence_id"));
+                eventType = string(request, "event_type");
+                userId = string(request, "user_id");
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad request: " + e.getMessage());
+                return;
+            }
+            if (userId == null) {
+                Responses.message(exchange, 400, "geofence_id and user_id are required");
+                return;
+            }
+
+            if ("entry".equals(eventType)) {
+                notifyEntry(geofenceId, userId);
+            } else if ("exit".equals(eventType)) {
+                dispatcher.expire(userId, geofenceId);
+            }
+            Responses.message(exchange, 200, "Notification triggered");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void notifyEntry(final String geofenceId, final String userId) {
+        geofences.child(geofenceId).addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot geofence) {
+                if (geofence.exists()) {
+                    final String title = geofence.child("gtitle").getValue(String.class);
+                    final String message = geofence.child("gmessage").getValue(String.class);
+                    users.orderByChild("geospark_token").equalTo(userId).addListenerForSingleValueEvent(new ValueEventListener() {
+                        @Override
+                        public void onDataChange(DataSnapshot snapshot) {
+                            for (DataSnapshot user : snapshot.getChildren()) {
+                                String deviceToken = user.child("device_token").getValue(String.class);
+                                if (deviceToken != null) {
+                                    dispatcher.send(userId, geofenceId, deviceToken, title, message);
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onCancelled(DatabaseError error) {
+                            LOG.warning("User lookup failed: " + error.getMessage());
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                LOG.warning("Geofence lookup failed: " + error.getMessage());
+            }
+        });
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonPrimitive()) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return element.getAsString();
+    }
+}
@@ -0,0 +1,176 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Versioned log of geofence changes, so devices can fetch only what changed since their last sync.
+ * <p>
+ * Every put or delete gets the next version and an entry under {@code /zone_changes/<version>},
+ * written in the same multi-path update as the geofence itself. Versions are zero padded so key
+ * order is version order. {@code /zone_version} is only moved once a whole batch has landed, and
+ * batches are written one at a time, so a reader that stops at it never skips a change that is
+ * still in flight. Versions of failed chunks are simply left unused.
+ * <p>
+ * Only the last {@link #RETAINED_VERSIONS} versions are kept. {@link #compact()} moves
+ * {@code /zone_changes_floor} up first and then deletes the entries at or below it; a device whose
+ * version is below the floor has missed changes and gets a reset instead.
+ * <p>
+ * The counter lives in this process: only one backend instance may write geofences.
+ */
+public class ZoneChangeLog {
+
+    static final String CHANGES = "zone_changes";
+    static final String VERSION = "zone_version";
+    static final String FLOOR = "zone_changes_floor";
+
+    static final long RETAINED_VERSIONS = 50000;
+    private static final int COMPACT_CHUNK = 500;
+
+    static final String OP_PUT = "put";
+    static final String OP_DELETE = "delete";
+
+    private static final long LOAD_TIMEOUT_SECONDS = 30;
+
+    final ReentrantLock writeLock = new ReentrantLock();
+
+    private final DatabaseReference root;
+    private long lastVersion;
+
+    public ZoneChangeLog(DatabaseReference root) {
+        this.root = root;
+    }
+
+    /**
+     * Picks up where the previous run left off, including versions written past the published one.
+     */
+    public void load() throws IOException, InterruptedException {
+        long published = readLong(root.child(VERSION));
+        long written = 0;
+        DataSnapshot last = read(root.child(CHANGES).orderByKey().limitToLast(1));
+        for (DataSnapshot change : last.getChildren()) {
+            written = Long.parseLong(change.getKey());
+        }
+        lastVersion = Math.max(published, written);
+    }
+
+    public DatabaseReference getRoot() {
+        return root;
+    }
+
+    /**
+     * Reserves {@code count} consecutive versions and returns the first. Hold {@link #writeLock}.
+     */
+    long reserve(int count) {
+        long first = lastVersion + 1;
+        lastVersion += count;
+        return first;
+    }
+
+    /**
+     * Makes every change up to {@code version} visible to readers. Hold {@link #writeLock}.
+     */
+    void publish(long version) throws InterruptedException, ExecutionException {
+        root.child(VERSION).setValueAsync(version).get();
+    }
+
+    long readPublished() throws IOException, InterruptedException {
+        return readLong(root.child(VERSION));
+    }
+
+    /**
+     * Highest version whose change may already be deleted; serving {@code since} below it would skip changes.
+     */
+    long readFloor() throws IOException, InterruptedException {
+        return readLong(root.child(FLOOR));
+    }
+
+    /**
+     * Deletes the changes more than {@link #RETAINED_VERSIONS} behind the published version.
+     *
+     * @return the number of entries deleted
+     */
+    int compact() throws IOException, InterruptedException {
+        long floor = readPublished() - RETAINED_VERSIONS;
+        if (floor <= readFloor()) {
+            return 0;
+        }
+        try {
+            // Readers check the floor after reading, so it has to move before anything is deleted.
+            root.child(FLOOR).setValueAsync(floor).get();
+            int deleted = 0;
+            while (true) {
+                DataSnapshot old = read(root.child(CHANGES).orderByKey().endAt(key(floor)).limitToFirst(COMPACT_CHUNK));
+                if (!old.hasChildren()) {
+                    return deleted;
+                }
+                Map<String, Object> update = new HashMap<>();
+                for (DataSnapshot entry : old.getChildren()) {
+                    update.put(entry.getKey(), null);
+                }
+                root.child(CHANGES).updateChildrenAsync(update).get();
+                deleted += update.size();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compact " + CHANGES, e.getCause());
+        }
+    }
+
+    static void putUpsert(Map<String, Object> update, long version, GeofenceRecord record) {
+        String prefix = CHANGES + "/" + key(version) + "/";
+        update.put(prefix + "op", OP_PUT);
+        record.putFields(prefix, update);
+    }
+
+    static void putDelete(Map<String, Object> update, long version, String geofenceId) {
+        String prefix = CHANGES + "/" + key(version) + "/";
+        update.put(prefix + "op", OP_DELETE);
+        update.put(prefix + "geofence_id", geofenceId);
+    }
+
+    static String key(long version) {
+        return String.format("%015d", version);
+    }
+
+    private static long readLong(DatabaseReference reference) throws IOException, InterruptedException {
+        Long value = read(reference).getValue(Long.class);
+        return value != null ? value : 0;
+    }
+
+    static DataSnapshot read(Query query) throws IOException, InterruptedException {
+        final DataSnapshot[] result = new DataSnapshot[1];
+        final DatabaseError[] error = new DatabaseError[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot snapshot) {
+                result[0] = snapshot;
+                done.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                error[0] = databaseError;
+                done.countDown();
+            }
+        });
+        if (!done.await(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IOException("Timed out reading " + query.getRef().getPath());
+        }
+        if (error[0] != null) {
+            throw new IOException(error[0].getMessage(), error[0].toException());
+        }
+        return result[0];
+    }
+}
@@ -0,0 +1,207 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves geofence changes to devices: {@code GET /zonechanges?since=<version>&limit=<n>}.
+ * <p>
+ * Replies with {@code version}, {@code changes} (puts and deletes, only the latest per geofence)
+ * and {@code more} when the limit cut the page short. A device without a version, with one the
+ * backend does not know, or with one below the compacted floor of the {@link ZoneChangeLog} gets a
+ * reset: every geofence, with {@code reset} set, paged by key. Each reset page carries a
+ * {@code cursor} to pass back as {@code after} (with {@code since=0}) for the next one. The device
+ * should replace its copy once the last page is in and then continue from the {@code version} of
+ * the first page.
+ */
+public class ZoneChangesHandler implements HttpHandler {
+
+    private static final Logger LOG = Logger.getLogger(ZoneChangesHandler.class.getName());
+
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 5000;
+
+    private final DatabaseReference geofences;
+    private final ZoneChangeLog changeLog;
+
+    public ZoneChangesHandler(DatabaseReference geofences, ZoneChangeLog changeLog) {
+        this.geofences = geofences;
+        this.changeLog = changeLog;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                Responses.message(exchange, 401, "Not allowed");
+                return;
+            }
+            long since;
+            int limit;
+            String after;
+            try {
+                Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+                since = query.containsKey("since") ? Long.parseLong(query.get("since")) : 0;
+                limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_LIMIT;
+                after = query.get("after");
+                if (after != null) {
+                    GeofenceBatchParser.checkId(after);
+                }
+            } catch (NumberFormatException e) {
+                Responses.message(exchange, 400, "since and limit must be numbers");
+                return;
+            } catch (IllegalArgumentException e) {
+                Responses.message(exchange, 400, "Bad request: " + e.getMessage());
+                return;
+            }
+            limit = Math.max(1, Math.min(MAX_LIMIT, limit));
+
+            JsonObject body;
+            try {
+                long published = changeLog.readPublished();
+                if (since <= 0 || since > published || since < changeLog.readFloor()) {
+                    body = snapshot(published, after, limit);
+                } else {
+                    body = changes(since, published, limit);
+                    // Compaction may have deleted part of the range while it was being read.
+                    if (since < changeLog.readFloor()) {
+                        body = snapshot(published, null, limit);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Responses.message(exchange, 503, "Interrupted");
+                return;
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Zone change lookup failed", e);
+                Responses.message(exchange, 503, "Try again later");
+                return;
+            }
+            Responses.json(exchange, 200, body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private JsonObject snapshot(long published, String after, int limit) throws IOException, InterruptedException {
+        Query query = geofences.orderByKey();
+        if (after != null) {
+            query = query.startAt(after);
+        }
+        // One extra to tell whether there is more, and startAt includes the cursor itself.
+        DataSnapshot page = ZoneChangeLog.read(query.limitToFirst(limit + (after != null ? 2 : 1)));
+        JsonArray changes = new JsonArray();
+        String cursor = null;
+        int read = 0;
+        boolean more = false;
+        for (DataSnapshot geofence : page.getChildren()) {
+            if (geofence.getKey().equals(after)) {
+                continue;
+            }
+            if (read == limit) {
+                more = true;
+                break;
+            }
+            read++;
+            cursor = geofence.getKey();
+            // Geofences from the addgeofence function have no position, devices cannot use them.
+            if (geofence.hasChild("lat") && geofence.hasChild("lng")) {
+                changes.add(change(ZoneChangeLog.OP_PUT, geofence));
+            }
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("version", published);
+        body.addProperty("reset", true);
+        body.addProperty("more", more);
+        if (cursor != null) {
+            body.addProperty("cursor", cursor);
+        }
+        body.add("changes", changes);
+        return body;
+    }
+
+    private JsonObject changes(long since, long published, int limit) throws IOException, InterruptedException {
+        long version = since;
+        int read = 0;
+        Map<String, JsonObject> latest = new LinkedHashMap<>();
+        if (since < published) {
+            DataSnapshot log = ZoneChangeLog.read(changeLog.getRoot().child(ZoneChangeLog.CHANGES).orderByKey()
+                    .startAt(ZoneChangeLog.key(since + 1)).endAt(ZoneChangeLog.key(published)).limitToFirst(limit));
+            for (DataSnapshot entry : log.getChildren()) {
+                String geofenceId = entry.child("geofence_id").getValue(String.class);
+                // Keep the map in order of each geofence's last change.
+                latest.remove(geofenceId);
+                latest.put(geofenceId, change(entry.child("op").getValue(String.class), entry));
+                version = Long.parseLong(entry.getKey());
+                read++;
+            }
+        }
+        JsonArray changes = new JsonArray();
+        for (JsonObject change : latest.values()) {
+            changes.add(change);
+        }
+        JsonObject body = new JsonObject();
+        // Nothing left to read in the requested range: the device is at the published version.
+        body.addProperty("version", read < limit ? published : version);
+        body.addProperty("reset", false);
+        body.addProperty("more", read == limit && version < published);
+        body.add("changes", changes);
+        return body;
+    }
+
+    private static JsonObject change(String op, DataSnapshot fields) {
+        JsonObject change = new JsonObject();
+        change.addProperty("op", op);
+        change.addProperty("geofence_id", fields.child("geofence_id").getValue(String.class));
+        if (ZoneChangeLog.OP_PUT.equals(op)) {
+            change.addProperty("gtitle", fields.child("gtitle").getValue(String.class));
+            change.addProperty("gmessage", fields.child("gmessage").getValue(String.class));
+            change.addProperty("lat", fields.child("lat").getValue(Double.class));
+            change.addProperty("lng", fields.child("lng").getValue(Double.class));
+            change.addProperty("radius", fields.child("radius").getValue(Double.class));
+            Integer severity = fields.child("severity").getValue(Integer.class);
+            change.addProperty("severity", severity != null ? severity : GeofenceBatchParser.DEFAULT_SEVERITY);
+            String schedule = fields.child("schedule").getValue(String.class);
+            if (schedule != null) {
+                change.addProperty("schedule", schedule);
+            }
+        }
+        return change;
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(pair.substring(0, eq), decode(pair.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
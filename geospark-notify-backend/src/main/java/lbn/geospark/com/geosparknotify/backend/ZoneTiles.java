@@ -0,0 +1,114 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Geohash tiles used to shard zone alerts over FCM topics.
+ * <p>
+ * The app subscribes to {@code zone_<tile>} for the tile it is in and the eight around it, so an
+ * alert sent to a tile reaches every device in it or in the tiles around it. Zones larger than a
+ * tile are covered with {@link #topicsFor(double, double, double)}.
+ * Must stay in step with {@code ZoneTiles} in the Android app.
+ */
+final class ZoneTiles {
+
+    // 5 characters is a tile of roughly 4.9 x 4.9 km at the equator.
+    static final int PRECISION = 5;
+    static final String TOPIC_PREFIX = "zone_";
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    // A 5 character geohash splits longitude 13 times and latitude 12 times.
+    private static final int COLUMNS = 1 << 13;
+    private static final int ROWS = 1 << 12;
+    private static final double TILE_WIDTH = 360.0 / COLUMNS;
+    private static final double TILE_HEIGHT = 180.0 / ROWS;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    private ZoneTiles() {
+    }
+
+    static String topicFor(double latitude, double longitude) {
+        return TOPIC_PREFIX + encode(latitude, longitude);
+    }
+
+    /**
+     * Topics that reach every device in a tile the zone's circle overlaps. Each device also listens
+     * to the tiles around its own, so every third tile across the circle's bounding box is enough;
+     * a zone within one tile gets just its own tile.
+     */
+    static Set<String> topicsFor(double latitude, double longitude, double radiusMeters) {
+        double dLat = radiusMeters / METERS_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(latitude));
+        double dLon = cos > 0 ? Math.min(180, dLat / cos) : 180;
+        int south = row(latitude - dLat);
+        int north = row(latitude + dLat);
+        // Columns are not wrapped yet, so a circle across the antimeridian stays one range.
+        int west = (int) Math.floor((longitude - dLon + 180) / TILE_WIDTH);
+        int east = (int) Math.floor((longitude + dLon + 180) / TILE_WIDTH);
+        if (east - west + 1 >= COLUMNS) {
+            west = 0;
+            east = COLUMNS - 1;
+        }
+        Set<String> topics = new LinkedHashSet<>();
+        for (int row : everyThird(south, north)) {
+            for (int column : everyThird(west, east)) {
+                int wrapped = (column % COLUMNS + COLUMNS) % COLUMNS;
+                topics.add(TOPIC_PREFIX + encode(-90 + (row + 0.5) * TILE_HEIGHT, -180 + (wrapped + 0.5) * TILE_WIDTH));
+            }
+        }
+        return topics;
+    }
+
+    // Indices from 'from' to 'to' such that every index in between is at most one away from one of them.
+    private static List<Integer> everyThird(int from, int to) {
+        List<Integer> picked = new ArrayList<>();
+        for (int i = Math.min(from + 1, to); ; i += 3) {
+            picked.add(Math.min(i, to));
+            if (i + 1 >= to) {
+                return picked;
+            }
+        }
+    }
+
+    private static int row(double latitude) {
+        double clamped = Math.max(-90, Math.min(90, latitude));
+        return Math.min(ROWS - 1, (int) ((clamped + 90) / TILE_HEIGHT));
+    }
+
+    static String encode(double latitude, double longitude) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        char[] hash = new char[PRECISION];
+        boolean even = true;
+        for (int i = 0; i < PRECISION; i++) {
+            int bits = 0;
+            for (int b = 0; b < 5; b++) {
+                bits <<= 1;
+                if (even) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (longitude >= mid) {
+                        bits |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        bits |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                even = !even;
+            }
+            hash[i] = BASE32[bits];
+        }
+        return new String(hash);
+    }
+}
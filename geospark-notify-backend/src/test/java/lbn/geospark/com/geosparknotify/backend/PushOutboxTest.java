@@ -0,0 +1,87 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PushOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PushRequest push(String id) {
+        return new PushRequest(id, "user", "zone", "token", "title", "body", 1000L);
+    }
+
+    private static List<String> ids(PushOutbox outbox) {
+        List<String> ids = new ArrayList<>();
+        for (PushRequest request : outbox.pending()) {
+            ids.add(request.id);
+        }
+        return ids;
+    }
+
+    private static void append(File file, String text) throws IOException {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void tornTailDoesNotSwallowLaterRecords() throws IOException {
+        File file = new File(folder.getRoot(), "outbox.log");
+        PushOutbox outbox = new PushOutbox(file);
+        outbox.add(push("r1"));
+        PushRequest r2 = push("r2");
+        outbox.add(r2);
+        r2.attempts = 2;
+        r2.nextAttemptAt = 5000L;
+        outbox.retryLater(r2);
+        // Crash half way through the next record.
+        append(file, "ADD\t{\"id\":\"r9\",\"userId\":\"us");
+
+        outbox = new PushOutbox(file);
+        assertEquals(Arrays.asList("r1", "r2"), ids(outbox));
+        assertEquals(2, outbox.pending().get(1).attempts);
+        outbox.add(push("r3"));
+        outbox.finish(outbox.pending().get(1), "delivered");
+
+        outbox = new PushOutbox(file);
+        assertEquals(Arrays.asList("r1", "r3"), ids(outbox));
+    }
+
+    @Test
+    public void badLineIsSkippedAndReplayContinues() throws IOException {
+        File file = new File(folder.getRoot(), "outbox.log");
+        PushOutbox outbox = new PushOutbox(file);
+        outbox.add(push("r1"));
+        append(file, "ADD\tnot json\nTRY\tr1\tx\t1\nADD\t\n");
+        outbox.add(push("r2"));
+
+        outbox = new PushOutbox(file);
+        assertEquals(Arrays.asList("r1", "r2"), ids(outbox));
+        assertEquals(0, outbox.pending().get(0).attempts);
+    }
+
+    @Test
+    public void fileWithOnlyATornLineStartsEmpty() throws IOException {
+        File file = new File(folder.getRoot(), "outbox.log");
+        append(file, "ADD\t{\"id\":");
+
+        PushOutbox outbox = new PushOutbox(file);
+        assertEquals(0, outbox.pending().size());
+        outbox.add(push("r1"));
+        assertEquals(Arrays.asList("r1"), ids(new PushOutbox(file)));
+    }
+}
@@ -0,0 +1,66 @@
+package lbn.geospark.com.geosparknotify.backend;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZoneTilesTest {
+
+    private static final double TILE_WIDTH = 360.0 / 8192;
+    private static final double TILE_HEIGHT = 180.0 / 4096;
+
+    // Whether a device at the point, listening to its tile and the eight around it, gets one of the topics.
+    private static boolean reaches(Set<String> topics, double latitude, double longitude) {
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                double lon = longitude + dx * TILE_WIDTH;
+                lon = lon >= 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+                if (topics.contains(ZoneTiles.topicFor(latitude + dy * TILE_HEIGHT, lon))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void assertCovers(double latitude, double longitude, double radius) {
+        Set<String> topics = ZoneTiles.topicsFor(latitude, longitude, radius);
+        double dLat = radius / 111320.0;
+        double dLon = dLat / Math.cos(Math.toRadians(latitude));
+        for (double y = -dLat; y <= dLat; y += dLat / 40) {
+            for (double x = -dLon; x <= dLon; x += dLon / 40) {
+                double lon = longitude + x;
+                lon = lon >= 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+                assertTrue("missed " + (latitude + y) + "," + lon, reaches(topics, latitude + y, lon));
+            }
+        }
+    }
+
+    @Test
+    public void smallZoneUsesItsOwnTile() {
+        assertEquals(Collections.singleton(ZoneTiles.topicFor(12.9774721, 80.1936779)),
+                ZoneTiles.topicsFor(12.9774721, 80.1936779, 200));
+    }
+
+    @Test
+    public void largeZoneReachesEveryTileItOverlaps() {
+        assertCovers(12.9774721, 80.1936779, 20000);
+        assertCovers(60.1699, 24.9384, 100000);
+    }
+
+    @Test
+    public void largeZoneSendsToAboutOneTileInNine() {
+        // A 100 km radius spans about 41 x 41 tiles at the equator.
+        Set<String> topics = ZoneTiles.topicsFor(0.5, 30.5, 100000);
+        assertTrue(topics.size() + " topics", topics.size() <= 15 * 15);
+    }
+
+    @Test
+    public void zoneAcrossTheAntimeridianWraps() {
+        assertCovers(-17.0, 179.99, 10000);
+    }
+}